@@ -29,6 +29,7 @@ import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
@@ -55,7 +56,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
@@ -76,15 +78,68 @@ public class FlowNodeUtil {
     @Restricted(NoExternalUse.class)
     public static class CacheExtension extends CacheExtensionPoint {
 
+        /** Heap budget for the run cache, in megabytes, shared by all cached runs according to their estimated size */
+        static final long MAX_CACHE_MB = Long.getLong(FlowNodeUtil.class.getName() + ".runCacheMaxMB", 128);
+
         // Larger cache of run data, for completed runs, keyed by flowexecution url, useful for serving info
         // Actually can be used to serve Stage data too
         // Because the RunExt caps the total elements returned, and this is fully realized, this is the fastest way
-        protected final Cache<String, RunExt> runData = CacheBuilder.newBuilder().maximumSize(1000).build();
+        // Weighted by estimated retained size, since one huge matrix build can cost as much as hundreds of small ones
+        // Indexed by job, so the runs of a renamed or deleted job are found without scanning it
+        private final IndexedRunCache indexedRunData = new IndexedRunCache(CacheBuilder.newBuilder()
+                .maximumWeight(MAX_CACHE_MB * 1024 * 1024)
+                .weigher(new RunCacheWeigher())
+                .recordStats());
+        protected final Cache<String, RunExt> runData = indexedRunData;
 
         public Cache<String, RunExt> getRunCache() {
             return this.runData;
         }
 
+        /** Maximum total weight of the run cache, in (estimated) bytes */
+        public long getMaxWeight() {
+            return MAX_CACHE_MB * 1024 * 1024;
+        }
+
+        /** Estimated heap retained by the cached runs, in bytes: walks the cache, so intended for diagnostics only */
+        public long getEstimatedWeight() {
+            long total = 0;
+            for (Map.Entry<String, RunExt> entry : runData.asMap().entrySet()) {
+                total += RunCacheWeigher.estimate(entry.getValue());
+            }
+            return total;
+        }
+
+        /**
+         * Keys of the cached runs of a job, see {@link WorkflowRun#getExternalizableId()}
+         * @param jobFullName Full name of the job
+         */
+        @NonNull
+        public Set<String> getCachedRunKeys(@NonNull String jobFullName) {
+            return indexedRunData.getKeys(jobFullName);
+        }
+
+        /** Estimated heap retained by the cached runs of a job, in bytes: looks without counting as cache accesses */
+        public long getEstimatedWeight(@NonNull String jobFullName) {
+            long total = 0;
+            for (String key : indexedRunData.getKeys(jobFullName)) {
+                RunExt run = runData.asMap().get(key);
+                if (run != null) {
+                    total += RunCacheWeigher.estimate(run);
+                }
+            }
+            return total;
+        }
+
+        /** Number of runs evicted to stay within {@link #getMaxWeight()} */
+        public long getEvictionCount() {
+            return runData.stats().evictionCount();
+        }
+
+        public CacheStats getStats() {
+            return runData.stats();
+        }
+
         public static List<CacheExtension> all() {
             Jenkins myJenkins = Jenkins.getInstanceOrNull();
             if ( myJenkins == null) {
@@ -97,14 +152,26 @@ public class FlowNodeUtil {
 
     @CheckForNull
     public static RunExt getCachedRun(@NonNull WorkflowRun run) {
-        RunExt cachedRun = CacheExtension.all().get(0).getRunCache().getIfPresent(run.getExternalizableId());
+        Cache<String, RunExt> runCache = CacheExtension.all().get(0).getRunCache();
+        RunExt cachedRun = runCache.getIfPresent(run.getExternalizableId());
         if (cachedRun != null) {
             // Sanity check the cache see JENKINS-43556
             StatusExt status = StatusExt.valueOf(run.getResult());
             if (cachedRun.getStatus().equals(status)) {
                 return cachedRun;
             } else {
-                CacheExtension.all().get(0).getRunCache().invalidate(run.getExternalizableId());
+                runCache.invalidate(run.getExternalizableId());
+                return null;
+            }
+        }
+
+        // Not in memory, for example after a restart: try the snapshot persisted with the completed build
+        if (!run.isBuilding()) {
+            cachedRun = RunSnapshot.load(run);
+            if (cachedRun != null && cachedRun.getStatus().equals(StatusExt.valueOf(run.getResult()))) {
+                cachedRun.freeze(run.getExternalizableId());
+                runCache.put(run.getExternalizableId(), cachedRun);
+                return cachedRun;
             }
         }
         return null;
@@ -112,7 +179,23 @@ public class FlowNodeUtil {
 
     public static void cacheRun(WorkflowRun run, RunExt runExt) {
         if (!run.isBuilding()) {
+            runExt.freeze(run.getExternalizableId());
             CacheExtension.all().get(0).getRunCache().put(run.getExternalizableId(), runExt);
+            RunSnapshot.save(run, runExt);
+        }
+    }
+
+    /**
+     * Weigh a cached run again, as the JSON held for it has grown since it was cached. Does not count as a cache access.
+     * @param key Key of the run in the run cache
+     */
+    @Restricted(NoExternalUse.class)
+    public static void reweighCachedRun(@NonNull String key) {
+        Map<String, RunExt> cached = CacheExtension.all().get(0).getRunCache().asMap();
+        RunExt run = cached.get(key);
+        if (run != null) {
+            // Replacing the value by itself is how the cache weighs it again
+            cached.replace(key, run, run);
         }
     }
 
@@ -152,6 +235,12 @@ public class FlowNodeUtil {
             // Can't parse iota as number, fall back to looking for parent
         }
 
+        // Otherwise, for example around parallels, look it up in the index of the graph
+        nextNode = SuccessorIndex.getNodeAfter(node);
+        if (nextNode != null) {
+            return nextNode;
+        }
+
         // Find node after this one, scanning everything until this one
         final FlowNode after = new ForkScanner().findFirstMatch(node.getExecution().getCurrentHeads(),
                                                                 Collections.singletonList(node),
@@ -237,10 +326,10 @@ public class FlowNodeUtil {
         RunExt runExt = RunExt.create(run);
         if (runExt.getStages() == null || runExt.getStages().isEmpty()) { return Collections.emptyList(); }
 
-        List<String> childIds = null;
+        NodeIdList childIds = null;
         for (StageNodeExt st : runExt.getStages()) {
             if (st.getId().equals(stageNode.getId())) {
-                childIds = st.getAllChildNodeIds();
+                childIds = st.getChildNodeIdList();
                 break;
             }
         }
@@ -248,8 +337,9 @@ public class FlowNodeUtil {
         try {
             if (childIds == null) { return Collections.emptyList(); }
             List<FlowNode> nodes = new ArrayList<>(childIds.size());
-            for (String s : childIds) {
-                nodes.add(exec.getNode(s));
+            for (NodeIdList.IdCursor ids = childIds.cursor(); ids.hasNext(); ) {
+                int id = ids.nextInt();
+                nodes.add(exec.getNode((id >= 0) ? Integer.toString(id) : ids.other()));
             }
             return nodes;
         } catch (IOException ioe) {
@@ -260,37 +350,38 @@ public class FlowNodeUtil {
     /** This is used to cover an obscure case where a WorkflowJob is renamed BUT
      *  a previous WorkflowJob existed with cached execution data.
      *  Otherwise the previous job's cached data would be returned.
+     *  Cached runs of a renamed pipeline are kept under its new name, since their links follow it.
      **/
     @Extension
     public static class RenameHandler extends ItemListener {
 
         /** Removes all cache entries, because the pipeline has been deleted/renamed.
-         *  Works by scanning the cache -- which is faster than iterating all builds because
-         *  it does not require deserializing build records, and cache is capped at 1000 entries.
+         *  Finds them by the job's index in the cache, so it does not scan all of it nor iterate all builds.
+         *  @param newFullName Name to cache the runs under again, if the pipeline was renamed, or null to drop them
          */
-        private void removeCachedRuns(String pipelineFullName) {
-            String runPrefix = pipelineFullName+"#"; // See Run#getExternalizableId - this is hardcoded
+        private void removeCachedRuns(String pipelineFullName, @CheckForNull String newFullName) {
             CacheExtension ext = CacheExtension.all().get(0);
             Cache<String, RunExt> rc = ext.getRunCache();
-            ConcurrentMap<String, RunExt> runMap = rc.asMap();
-            for (String cacheRunId : runMap.keySet()) {  // Put the Concurrent in ConcurrentMap to work for us
-                // Null-check may not be needed, but just in case of mutation by another thread
-                if (cacheRunId != null && cacheRunId.startsWith(runPrefix)) {
-                    runMap.remove(cacheRunId); // Map view writes through modifications
+            for (String cacheRunId : ext.getCachedRunKeys(pipelineFullName)) {
+                RunExt cachedRun = rc.asMap().remove(cacheRunId); // Map view writes through modifications
+                // Runs holding their links in full have the old URLs
+                if (newFullName != null && cachedRun != null && cachedRun.hasDerivedLinks()) {
+                    // See Run#getExternalizableId - this is hardcoded
+                    rc.put(newFullName + cacheRunId.substring(pipelineFullName.length()), cachedRun);
                 }
             }
         }
 
         @Override
         public void onLocationChanged(Item item, String oldFullName, String newFullName) {
-            // We need to invalidate cache entries because all the URLs within the run will have changed, such as for logs
-            removeCachedRuns(oldFullName);
+            // Runs are cached by name, but their contents are still valid
+            removeCachedRuns(oldFullName, (item instanceof WorkflowJob) ? newFullName : null);
         }
 
         @Override
         public void onDeleted(Item item) {
             if (item instanceof WorkflowJob) {
-                removeCachedRuns(item.getFullName());
+                removeCachedRuns(item.getFullName(), null);
             }
         }
     }
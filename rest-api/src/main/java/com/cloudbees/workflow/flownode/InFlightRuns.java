@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent computations of the same run into one: the first caller computes, and everyone arriving
+ * while that is in flight waits for its result instead of walking the same flow graph again.
+ */
+@Restricted(NoExternalUse.class)
+public final class InFlightRuns {
+
+    private static final ConcurrentMap<String, CompletableFuture<RunExt>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final AtomicLong COMPUTED = new AtomicLong();
+
+    private static final AtomicLong COALESCED = new AtomicLong();
+
+    private InFlightRuns() {
+    }
+
+    /**
+     * Run the computation for the key, or wait for the one already running for it.
+     * @param key Run key, see {@link org.jenkinsci.plugins.workflow.job.WorkflowRun#getExternalizableId()}
+     * @param computation Computes the run, on the calling thread
+     * @return The result of whichever computation was in flight
+     */
+    @NonNull
+    public static RunExt compute(@NonNull String key, @NonNull Supplier<RunExt> computation) {
+        CompletableFuture<RunExt> mine = new CompletableFuture<>();
+        CompletableFuture<RunExt> inFlight = IN_FLIGHT.putIfAbsent(key, mine);
+        if (inFlight != null) {
+            COALESCED.incrementAndGet();
+            return await(inFlight);
+        }
+
+        COMPUTED.incrementAndGet();
+        try {
+            RunExt result = computation.get();
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, mine);
+        }
+    }
+
+    private static RunExt await(CompletableFuture<RunExt> inFlight) {
+        try {
+            return inFlight.join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ce;
+        }
+    }
+
+    /** Number of computations actually run */
+    public static long getComputedCount() {
+        return COMPUTED.get();
+    }
+
+    /** Number of callers that were handed the result of a computation already in flight, rather than running their own */
+    public static long getCoalescedCount() {
+        return COALESCED.get();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The run cache, plus the keys of the cached runs by job, so the runs of one job are found without scanning the cache.
+ * <p>
+ * Keys are {@link org.jenkinsci.plugins.workflow.job.WorkflowRun#getExternalizableId()}, i.e. the job's full name,
+ * {@code #} and the build number. They are added to the index by {@link #put}, {@link #putAll} and loading {@link #get}, and removed as
+ * the cache drops the runs for any reason, including evictions. The index may briefly hold the key of a run that
+ * was just dropped, but never misses that of a cached run put that way.
+ * </p>
+ */
+final class IndexedRunCache extends ForwardingCache<String, RunExt> {
+
+    private final Cache<String, RunExt> delegate;
+
+    /** Keys of cached runs by job full name */
+    private final ConcurrentMap<String, Set<String>> keysByJob = new ConcurrentHashMap<>();
+
+    IndexedRunCache(@NonNull CacheBuilder<String, RunExt> builder) {
+        this.delegate = builder.removalListener(this::onRemoval).build();
+    }
+
+    @Override
+    protected Cache<String, RunExt> delegate() {
+        return delegate;
+    }
+
+    @Override
+    public void put(String key, RunExt value) {
+        delegate.put(key, value);
+        index(key);  // After, so a concurrent removal of the run it replaced cannot drop the key
+    }
+
+    @Override
+    public RunExt get(String key, Callable<? extends RunExt> loader) throws ExecutionException {
+        RunExt value = delegate.get(key, loader);
+        index(key);
+        return value;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends RunExt> m) {
+        delegate.putAll(m);
+        for (String key : m.keySet()) {
+            index(key);
+        }
+    }
+
+    /**
+     * Get the keys of a job's cached runs
+     * @param jobFullName Full name of the job
+     * @return Snapshot of the keys
+     */
+    @NonNull
+    Set<String> getKeys(@NonNull String jobFullName) {
+        Set<String> keys = keysByJob.get(jobFullName);
+        return (keys != null) ? Collections.unmodifiableSet(new HashSet<>(keys)) : Collections.emptySet();
+    }
+
+    private void index(@NonNull String key) {
+        String job = getJobFullName(key);
+        if (job != null) {
+            keysByJob.compute(job, (name, keys) -> {
+                Set<String> jobKeys = (keys != null) ? keys : ConcurrentHashMap.newKeySet();
+                jobKeys.add(key);
+                return jobKeys;
+            });
+        }
+    }
+
+    private void onRemoval(@NonNull RemovalNotification<String, RunExt> notification) {
+        String key = notification.getKey();
+        if (key == null || notification.getCause() == RemovalCause.REPLACED) {
+            return;  // Still cached
+        }
+        String job = getJobFullName(key);
+        if (job == null) {
+            return;
+        }
+        keysByJob.computeIfPresent(job, (name, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+        // The run may have been put again meanwhile, before this (late) notification
+        if (delegate.asMap().containsKey(key)) {
+            index(key);
+        }
+    }
+
+    /** Job part of a key, see Run#getExternalizableId */
+    @CheckForNull
+    private static String getJobFullName(@NonNull String key) {
+        int hash = key.lastIndexOf('#');
+        return (hash > 0) ? key.substring(0, hash) : null;
+    }
+}
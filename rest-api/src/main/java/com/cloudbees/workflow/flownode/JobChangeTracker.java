@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Version of what the runs of each job look like, so clients can ask whether anything changed before asking for the runs.
+ * <p>
+ * Each job has a counter, bumped when one of its runs starts, completes, is deleted, is edited or gets a new flow node.
+ * The version is the counter prefixed with the time this Jenkins started (and which counter it is, in case the job
+ * is loaded again), so it never repeats across restarts even though the counters start again from zero.
+ * </p>
+ * <p>
+ * The version at which each run last changed is remembered too, for the most recently changed runs, so a client can
+ * be told which runs changed since the version it has, see {@link #getChangesSince(WorkflowJob, String)}.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class JobChangeTracker {
+
+    /** How many changed runs to remember per job */
+    private static final int MAX_CHANGED_RUNS = Integer.getInteger(JobChangeTracker.class.getName() + ".maxChangedRuns", 100);
+
+    /** Distinguishes the counters of this Jenkins process from those of earlier ones */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    /** Weak keys, so the changes go away with the job, compared by identity */
+    private static final Cache<WorkflowJob, JobChanges> CHANGES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** Told about every change, on the thread making it */
+    private static final List<Consumer<WorkflowJob>> OBSERVERS = new CopyOnWriteArrayList<>();
+
+    /** Runs changed and deleted since some version, by build number, newest change first */
+    public static final class Changes {
+        private final List<Integer> changed = new ArrayList<>();
+        private final List<Integer> deleted = new ArrayList<>();
+
+        /** Build numbers of the runs changed (or started) since the version */
+        @NonNull
+        public List<Integer> getChanged() {
+            return changed;
+        }
+
+        /** Build numbers of the runs deleted since the version */
+        @NonNull
+        public List<Integer> getDeleted() {
+            return deleted;
+        }
+    }
+
+    /** Counter and recent changes of one job */
+    private static final class JobChanges {
+        /** Distinguishes the counters of jobs that were loaded more than once, such as after reloading them from disk */
+        private final String prefix = EPOCH + '.' + GENERATIONS.incrementAndGet() + '.';
+
+        private long counter;
+
+        /** Version each run last changed at, by build number, least recently changed first. Negative if deleted. */
+        private final LinkedHashMap<Integer, Long> runVersions = new LinkedHashMap<>();
+
+        /** Changes at or before this version have been forgotten */
+        private long forgottenVersion;
+
+        synchronized String getVersion() {
+            return prefix + counter;
+        }
+
+        synchronized void changed(int number, boolean deleted) {
+            counter++;
+            runVersions.remove(number);
+            runVersions.put(number, deleted ? -counter : counter);
+            if (runVersions.size() > MAX_CHANGED_RUNS) {
+                Iterator<Long> oldest = runVersions.values().iterator();
+                forgottenVersion = Math.abs(oldest.next());
+                oldest.remove();
+            }
+        }
+
+        /** Something changed that may affect every run */
+        synchronized void reset() {
+            counter++;
+            runVersions.clear();
+            forgottenVersion = counter;
+        }
+
+        @CheckForNull
+        synchronized Changes since(@NonNull String fullVersion) {
+            if (!fullVersion.startsWith(prefix)) {
+                return null;
+            }
+            long version;
+            try {
+                version = Long.parseLong(fullVersion.substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (version < forgottenVersion || version > counter) {
+                return null;
+            }
+            Changes changes = new Changes();
+            for (Map.Entry<Integer, Long> entry : runVersions.entrySet()) {
+                long changedAt = entry.getValue();
+                if (Math.abs(changedAt) > version) {
+                    (changedAt < 0 ? changes.deleted : changes.changed).add(0, entry.getKey());
+                }
+            }
+            return changes;
+        }
+    }
+
+    private JobChangeTracker() {
+    }
+
+    /**
+     * Be told about changes to the runs of any job.
+     * The observer is called on the thread making the change, often while a build is running, so it must be quick.
+     */
+    public static void addObserver(@NonNull Consumer<WorkflowJob> observer) {
+        OBSERVERS.add(observer);
+    }
+
+    /**
+     * Get the job's current version
+     * @return Opaque version, which changes whenever the job's runs do
+     */
+    @NonNull
+    public static String getVersion(@NonNull WorkflowJob job) {
+        return changes(job).getVersion();
+    }
+
+    /**
+     * Find the runs that changed since a version.
+     * @param version A version returned by {@link #getVersion(WorkflowJob)}
+     * @return The changes, or null if they are not known (the version is from before a restart, or too old)
+     *         and the client has to start again from all the runs
+     */
+    @CheckForNull
+    public static Changes getChangesSince(@NonNull WorkflowJob job, @CheckForNull String version) {
+        return (version != null) ? changes(job).since(version) : null;
+    }
+
+    /** Record a change that may affect all of the job's runs */
+    public static void bump(@CheckForNull WorkflowJob job) {
+        if (job != null) {
+            changes(job).reset();
+            notifyObservers(job);
+        }
+    }
+
+    /** Record a change to a run */
+    public static void bump(@NonNull WorkflowRun run) {
+        changes(run.getParent()).changed(run.getNumber(), false);
+        notifyObservers(run.getParent());
+    }
+
+    /** Record a run being deleted */
+    public static void bumpDeleted(@NonNull WorkflowRun run) {
+        changes(run.getParent()).changed(run.getNumber(), true);
+        notifyObservers(run.getParent());
+    }
+
+    private static void notifyObservers(@NonNull WorkflowJob job) {
+        for (Consumer<WorkflowJob> observer : OBSERVERS) {
+            observer.accept(job);
+        }
+    }
+
+    @NonNull
+    private static JobChanges changes(@NonNull WorkflowJob job) {
+        try {
+            return CHANGES.get(job, JobChanges::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unexpected error tracking changes", e);
+        }
+    }
+
+    /** Runs starting, completing and being deleted */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class RunTracker extends RunListener<WorkflowRun> {
+        @Override
+        public void onStarted(WorkflowRun run, TaskListener listener) {
+            bump(run);
+        }
+
+        @Override
+        public void onCompleted(WorkflowRun run, @NonNull TaskListener listener) {
+            bump(run);
+        }
+
+        @Override
+        public void onFinalized(WorkflowRun run) {
+            bump(run);
+        }
+
+        @Override
+        public void onDeleted(WorkflowRun run) {
+            bumpDeleted(run);
+        }
+    }
+
+    /** Runs being edited, e.g. their display name */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class SaveTracker extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof WorkflowRun) {
+                bump((WorkflowRun) o);
+            }
+        }
+    }
+
+    /** Nodes being added to running builds */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class GraphTracker implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            try {
+                Queue.Executable exec = node.getExecution().getOwner().getExecutable();
+                if (exec instanceof WorkflowRun) {
+                    bump((WorkflowRun) exec);
+                }
+            } catch (IOException e) {
+                // Not a build any more, nothing to track
+            }
+        }
+    }
+
+    /** Jobs moving, which changes all the URLs of their runs */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class LocationTracker extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof WorkflowJob) {
+                bump((WorkflowJob) item);
+            }
+        }
+    }
+}
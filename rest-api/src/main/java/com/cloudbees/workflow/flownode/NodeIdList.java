@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact, ordered and immutable list of flow node IDs, such as all the nodes in a stage.
+ * <p>
+ * Node IDs are nearly always consecutive integers, so they are stored as ranges: a stage with thousands of steps takes
+ * a few ints rather than a String each. IDs that are not plain numbers are kept as they are, in their place.
+ * Use {@link #cursor()} to go through the IDs without creating them, or {@link #asList()} for them as strings.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class NodeIdList {
+
+    public static final NodeIdList EMPTY = new NodeIdList(new int[0], new String[0]);
+
+    /** Pairs of first ID and count of a range, in order. A count of 0 stands for the ID in {@link #others} at first. */
+    private final int[] ranges;
+
+    /** IDs that are not plain numbers */
+    private final String[] others;
+
+    private final int size;
+
+    @JsonCreator
+    NodeIdList(@JsonProperty("ranges") int[] ranges, @JsonProperty("others") String[] others) {
+        if (ranges == null || ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("Ranges must be pairs of first ID and count");
+        }
+        this.ranges = ranges;
+        this.others = (others != null) ? others : new String[0];
+        int total = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i + 1] == 0 && (ranges[i] < 0 || ranges[i] >= this.others.length)) {
+                throw new IllegalArgumentException("No ID at " + ranges[i]);
+            }
+            total += Math.max(ranges[i + 1], 1);
+        }
+        this.size = total;
+    }
+
+    /**
+     * @param ids The IDs, in order
+     */
+    @NonNull
+    public static NodeIdList of(@NonNull List<String> ids) {
+        if (ids.isEmpty()) {
+            return EMPTY;
+        }
+        int[] ranges = new int[8];
+        int length = 0;
+        List<String> others = new ArrayList<>();
+        for (String id : ids) {
+            int number = parse(id);
+            if (number >= 0 && length > 0 && ranges[length - 1] > 0
+                    && (long) ranges[length - 2] + ranges[length - 1] == number) {
+                ranges[length - 1]++;
+                continue;
+            }
+            if (length == ranges.length) {
+                ranges = Arrays.copyOf(ranges, length * 2);
+            }
+            if (number >= 0) {
+                ranges[length++] = number;
+                ranges[length++] = 1;
+            } else {
+                ranges[length++] = others.size();
+                ranges[length++] = 0;
+                others.add(id);
+            }
+        }
+        return new NodeIdList(Arrays.copyOf(ranges, length), others.toArray(new String[0]));
+    }
+
+    /** The ID as a number, if it is one that prints back as the same ID, else -1 */
+    static int parse(@CheckForNull String id) {
+        if (id == null || id.isEmpty() || id.length() > 10 || (id.length() > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return (number <= Integer.MAX_VALUE) ? (int) number : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @JsonProperty("ranges")
+    int[] getRanges() {
+        return ranges;
+    }
+
+    @JsonProperty("others")
+    String[] getOthers() {
+        return others;
+    }
+
+    /** Goes through the IDs */
+    @NonNull
+    public IdCursor cursor() {
+        return new IdCursor();
+    }
+
+    /** The IDs as strings, created as they are read */
+    @NonNull
+    public List<String> asList() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                for (int i = 0; ; i += 2) {
+                    int count = Math.max(ranges[i + 1], 1);
+                    if (index < count) {
+                        return (ranges[i + 1] == 0) ? others[ranges[i]] : Integer.toString(ranges[i] + index);
+                    }
+                    index -= count;
+                }
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                final IdCursor ids = cursor();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return ids.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        int id = ids.nextInt();
+                        return (id >= 0) ? Integer.toString(id) : ids.other();
+                    }
+                };
+            }
+        };
+    }
+
+    /** Goes through the IDs as numbers, only creating the ones that are not */
+    public final class IdCursor {
+        private int pair;
+        private int offset;
+        private String other;
+
+        private IdCursor() {
+        }
+
+        public boolean hasNext() {
+            return pair < ranges.length;
+        }
+
+        /**
+         * Move to the next ID
+         * @return The ID, or -1 if it is not a number, see {@link #other()}
+         */
+        public int nextInt() {
+            if (pair >= ranges.length) {
+                throw new NoSuchElementException();
+            }
+            int first = ranges[pair];
+            int count = ranges[pair + 1];
+            if (count == 0) {
+                other = others[first];
+                pair += 2;
+                return -1;
+            }
+            other = null;
+            int id = first + offset;
+            if (++offset == count) {
+                offset = 0;
+                pair += 2;
+            }
+            return id;
+        }
+
+        /** The current ID, if it is not a number */
+        @CheckForNull
+        public String other() {
+            return other;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.google.common.cache.Cache;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Creates several runs at once: those that have to be computed are computed at the same time, so a cold request for
+ * many runs takes about as long as the slowest of them rather than all of them.
+ * <p>
+ * The threads (the {@code threads} property, one per processor by default) are shared by all requests. When they are
+ * all busy, the requesting thread computes the run itself, so the work waiting is bounded by the requests waiting.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class ParallelRuns {
+
+    private static final int THREADS = Integer.getInteger(ParallelRuns.class.getName() + ".threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(Math.max(THREADS, 1), Math.max(THREADS, 1),
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "ParallelRuns"), new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private ParallelRuns() {
+    }
+
+    /**
+     * Create the runs, as {@link RunExt#create(WorkflowRun)} would one at a time
+     * @param runs The runs
+     * @return The created runs, in the same order
+     */
+    @NonNull
+    public static List<RunExt> create(@NonNull List<WorkflowRun> runs) {
+        if (THREADS <= 1) {
+            return map(runs, run -> true, RunExt::create, null);
+        }
+        Cache<String, RunExt> runCache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+        // Only looking, through the map view, so the check neither counts as a cache hit nor refreshes the entry
+        // The pooled threads look at the runs as the requesting thread would
+        Authentication auth = Jenkins.getAuthentication2();
+        return map(runs,
+                run -> !run.isBuilding() && runCache.asMap().containsKey(run.getExternalizableId()),
+                run -> {
+                    try (ACLContext ctx = ACL.as2(auth)) {
+                        return RunExt.create(run);
+                    }
+                },
+                EXECUTOR);
+    }
+
+    /**
+     * Apply a function to each item, on the executor where it is worth it
+     * @param cheap Items to apply the function to on the calling thread, such as cached runs
+     * @param executor Where to apply it to the other items, or null for the calling thread
+     * @return The results, in the order of the items
+     */
+    @NonNull
+    static <T, R> List<R> map(@NonNull List<T> items, @NonNull Predicate<T> cheap, @NonNull Function<T, R> function, Executor executor) {
+        boolean[] inline = new boolean[items.size()];
+        int expensive = 0;
+        for (int i = 0; i < inline.length; i++) {
+            inline[i] = executor == null || cheap.test(items.get(i));
+            if (!inline[i]) {
+                expensive++;
+            }
+        }
+        List<R> results = new ArrayList<>(items.size());
+        if (expensive <= 1) {
+            // Nothing to do at the same time
+            for (T item : items) {
+                results.add(function.apply(item));
+            }
+            return results;
+        }
+
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+        for (int i = 0; i < inline.length; i++) {
+            T item = items.get(i);
+            futures.add(inline[i] ? null : CompletableFuture.supplyAsync(() -> function.apply(item), executor));
+        }
+        for (int i = 0; i < inline.length; i++) {
+            if (inline[i]) {
+                results.add(function.apply(items.get(i)));
+                continue;
+            }
+            try {
+                results.add(futures.get(i).join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
+import com.cloudbees.workflow.rest.external.ErrorExt;
+import com.cloudbees.workflow.rest.external.FlowNodeExt;
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.hal.Link;
+import com.google.common.cache.Weigher;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.List;
+
+/**
+ * Weighs cached runs by a rough estimate of the heap they retain, in bytes.
+ * The estimate only needs to be proportionate: a 400 stage run must weigh far more than a 3 stage one.
+ */
+final class RunCacheWeigher implements Weigher<String, RunExt> {
+
+    // Approximate shallow sizes on a 64-bit JVM with compressed oops
+    private static final long OBJECT_OVERHEAD = 16;
+    private static final long REFERENCE = 4;
+    private static final long LIST_OVERHEAD = 40;
+    private static final long ARRAY_OVERHEAD = 16;
+    private static final long RUN_SHALLOW = 80;
+    private static final long NODE_SHALLOW = 64;
+    private static final long LINK_BASE_SHALLOW = 120;
+
+    @Override
+    public int weigh(@NonNull String key, @NonNull RunExt run) {
+        return (int) Math.min(Integer.MAX_VALUE, stringSize(key) + estimate(run));
+    }
+
+    static long estimate(@NonNull RunExt run) {
+        long size = RUN_SHALLOW + stringSize(run.getId()) + stringSize(run.getName());
+        RunExt.RunLinks links = run.get_links();
+        if (links != null && links.isDerived()) {
+            // Put together when written out, from a base shared with the nodes
+            size += OBJECT_OVERHEAD + 6 * REFERENCE + 3 + LINK_BASE_SHALLOW;
+        } else if (links != null) {
+            size += OBJECT_OVERHEAD + 6 * REFERENCE + 3 + linkSize(links.self) + linkSize(links.getChangesets())
+                    + linkSize(links.getPendingInputActions()) + linkSize(links.getNextPendingInputAction())
+                    + linkSize(links.getArtifacts());
+        }
+        List<StageNodeExt> stages = run.getStages();
+        if (stages != null) {
+            size += LIST_OVERHEAD + REFERENCE * stages.size();
+            for (StageNodeExt stage : stages) {
+                size += nodeSize(stage);
+                List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+                if (children != null) {
+                    size += LIST_OVERHEAD + REFERENCE * children.size();
+                    for (AtomFlowNodeExt child : children) {
+                        size += nodeSize(child);
+                        List<String> parents = child.getParentNodes();
+                        if (parents != null) {
+                            size += LIST_OVERHEAD + REFERENCE * parents.size();
+                            for (String parent : parents) {
+                                size += stringSize(parent);
+                            }
+                        }
+                    }
+                }
+                size += nodeIdListSize(stage.getChildNodeIdList());
+            }
+        }
+        // The JSON of a frozen run, and of its wrapper, is held alongside it once asked for, when the run is weighed again
+        return size + RunExt.getFrozenJsonSize(run);
+    }
+
+    private static long nodeSize(@NonNull FlowNodeExt node) {
+        long size = NODE_SHALLOW + stringSize(node.getId()) + stringSize(node.getName())
+                + stringSize(node.getExecNode()) + stringSize(node.getParameterDescription());
+        ErrorExt error = node.getError();
+        if (error != null) {
+            size += OBJECT_OVERHEAD + 2 * REFERENCE + stringSize(error.getMessage()) + stringSize(error.getType());
+        }
+        FlowNodeExt.FlowNodeLinks links = node.get_links();
+        if (links != null) {
+            size += OBJECT_OVERHEAD + 6 * REFERENCE + 1;
+            if (!links.isDerived()) {
+                size += linkSize(links.self) + linkSize(links.getLog()) + linkSize(links.getConsole());
+            }
+        }
+        return size;
+    }
+
+    private static long nodeIdListSize(@NonNull NodeIdList ids) {
+        long size = OBJECT_OVERHEAD + 2 * REFERENCE + 4 + ARRAY_OVERHEAD + 4L * ids.getRanges().length
+                + ARRAY_OVERHEAD + REFERENCE * ids.getOthers().length;
+        for (String id : ids.getOthers()) {
+            size += stringSize(id);
+        }
+        return size;
+    }
+
+    private static long linkSize(Link link) {
+        return (link == null) ? 0 : OBJECT_OVERHEAD + REFERENCE + stringSize(link.href);
+    }
+
+    /** String object plus its backing array, assuming compact (Latin-1) strings */
+    private static long stringSize(String s) {
+        return (s == null) ? 0 : 24 + 16 + s.length();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the {@link RunExt} of each build as it finishes, in the background, so it is already cached (and persisted)
+ * when the first viewer asks for it, and records its stages for {@link StageStatistics}.
+ * <p>
+ * A few threads at most (the {@code concurrency} property) compute runs, with a bounded queue. Builds finishing
+ * faster than that are left to be computed when first viewed, like any other, and recorded as missing from the
+ * statistics, which compute them later on (see {@link StageStatistics}). A viewer asking for a run being computed waits
+ * for that computation, see {@link InFlightRuns}. The same threads do the other background work of the statistics.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class RunPrecomputer {
+
+    private static final Logger LOGGER = Logger.getLogger(RunPrecomputer.class.getName());
+
+    /**
+     * Do not compute runs as builds finish: they are left to be computed and cached when viewed, and only recorded as
+     * missing from the statistics, which compute them when the statistics are next asked for
+     */
+    private static final boolean DISABLED = Boolean.getBoolean(RunPrecomputer.class.getName() + ".disabled");
+
+    private static final int CONCURRENCY = Math.max(1, Integer.getInteger(RunPrecomputer.class.getName() + ".concurrency", 2));
+
+    private static final int MAX_QUEUED = Integer.getInteger(RunPrecomputer.class.getName() + ".maxQueued", 1000);
+
+    static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(CONCURRENCY, CONCURRENCY,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED),
+            new NamingThreadFactory(new DaemonThreadFactory(), "RunPrecomputer"));
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private RunPrecomputer() {
+    }
+
+    static void submit(@NonNull WorkflowRun run) {
+        boolean queued = execute(() -> {
+            try {
+                precompute(run);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to precompute " + run.getExternalizableId(), e);
+            }
+        });
+        if (!queued) {
+            LOGGER.log(Level.FINE, "Too many runs queued, not precomputing {0}", run.getExternalizableId());
+            StageStatistics.addLater(run);
+        }
+    }
+
+    /**
+     * Run a task in the background
+     * @return False if too many tasks are queued already, the task is then dropped
+     */
+    static boolean execute(@NonNull Runnable task) {
+        try {
+            EXECUTOR.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    static void precompute(@NonNull WorkflowRun run) {
+        if (run.isBuilding() || !run.getRootDir().isDirectory()) {
+            return;  // Deleted (or its job moved) while queued
+        }
+        // Cached runs do not depend on the root URL, their links are put together as they are written out
+        StageStatistics.add(run, RunExt.create(run));
+    }
+
+    /** Builds being finalized, when they are no longer building so their runs can be cached */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class FinalizedListener extends RunListener<WorkflowRun> {
+        @Override
+        public void onFinalized(WorkflowRun run) {
+            if (DISABLED) {
+                StageStatistics.addLater(run);
+            } else {
+                submit(run);
+            }
+        }
+    }
+}
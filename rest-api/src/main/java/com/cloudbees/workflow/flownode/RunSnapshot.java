@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.util.AtomicFileWriter;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Second level of the run cache: a compact snapshot of the fully realized {@link RunExt} for a completed build,
+ * stored in the build directory so the stage data survives controller restarts without rescanning the flow graph.
+ */
+@SuppressFBWarnings(value = {"URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", "UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD"},
+        justification = "Fields are read and written by Jackson")
+final class RunSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(RunSnapshot.class.getName());
+
+    /** Name of the snapshot file within the build directory */
+    static final String FILE_NAME = "wfapi-run-cache.json";
+
+    /** Bump whenever the layout of the snapshot or the cached model changes, older snapshots are then ignored */
+    static final int FORMAT_VERSION = 3;
+
+    private static final boolean DISABLED = Boolean.getBoolean(RunSnapshot.class.getName() + ".disabled");
+
+    private static final ObjectReader READER = JSONReadWrite.jsonMapper.readerFor(RunSnapshot.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public int version;
+
+    /**
+     * Guards against a snapshot copied along with the directory of another build. The job may have moved since,
+     * as the links read with the run are replaced by ones put together from where it is now.
+     */
+    public String runId;
+
+    public RunExt run;
+
+    /** Not part of the JSON for {@link StageNodeExt}, so carried separately: stage ID to all of its child node IDs */
+    public Map<String, NodeIdList> childNodeIds;
+
+    static File getFile(@NonNull WorkflowRun run) {
+        return new File(run.getRootDir(), FILE_NAME);
+    }
+
+    /** Reads the snapshot for a completed build, or returns null if there is none or it cannot be used */
+    @CheckForNull
+    static RunExt load(@NonNull WorkflowRun run) {
+        RunSnapshot snapshot = read(getFile(run), run.getId());
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            List<StageNodeExt> stages = snapshot.run.getStages();
+            if (stages != null && snapshot.childNodeIds != null) {
+                for (StageNodeExt stage : stages) {
+                    NodeIdList ids = snapshot.childNodeIds.get(stage.getId());
+                    if (ids != null) {
+                        stage.setChildNodeIdList(ids);
+                    }
+                }
+            }
+            snapshot.run.deriveLinks(run);
+            return snapshot.run;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to read persisted stage data for " + run.getExternalizableId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the run in the snapshot of a completed build straight from the build directory, without loading the build.
+     * Only good for its stages: their child node IDs are not filled in, and links are not put together.
+     */
+    @CheckForNull
+    static RunExt loadStages(@NonNull File buildDir, @NonNull String runId) {
+        RunSnapshot snapshot = read(new File(buildDir, FILE_NAME), runId);
+        return (snapshot != null) ? snapshot.run : null;
+    }
+
+    @CheckForNull
+    private static RunSnapshot read(@NonNull File file, @NonNull String runId) {
+        if (DISABLED || !file.isFile()) {
+            return null;
+        }
+        try {
+            RunSnapshot snapshot = READER.readValue(Files.readAllBytes(file.toPath()));
+            if (snapshot.version != FORMAT_VERSION || snapshot.run == null || !runId.equals(snapshot.runId)) {
+                return null;
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to read persisted stage data from " + file, e);
+            return null;
+        }
+    }
+
+    /** Writes the snapshot for a completed build, failures are logged since the snapshot is only an optimization */
+    static void save(@NonNull WorkflowRun run, @NonNull RunExt runExt) {
+        if (DISABLED) {
+            return;
+        }
+        RunSnapshot snapshot = new RunSnapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.runId = run.getId();
+        snapshot.run = runExt;
+        snapshot.childNodeIds = new HashMap<>();
+        if (runExt.getStages() != null) {
+            for (StageNodeExt stage : runExt.getStages()) {
+                snapshot.childNodeIds.put(stage.getId(), stage.getChildNodeIdList());
+            }
+        }
+
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter(getFile(run).toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(JSONReadWrite.jsonMapper.writeValueAsString(snapshot));
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to persist stage data for " + run.getExternalizableId(), e);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.external.StatusExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.init.Terminator;
+import hudson.util.AtomicFileWriter;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stage durations and results of each job's most recent builds, for statistics over many builds without computing
+ * every {@link RunExt}.
+ * <p>
+ * A build is added when it is finalized, from the {@link RunExt} computed (and cached) for it then by
+ * {@link RunPrecomputer}, and the samples are persisted in the job directory every few builds, and on shutdown. Builds
+ * whose runs are not computed then (too many queued, or precomputing disabled) are recorded as missing, and their stages
+ * are scanned in the background when the statistics are next asked for, a batch at a time and without caching the runs.
+ * Deleting builds keeps their samples, they still count towards the statistics. For a job without any yet, they are
+ * seeded in the background, once the statistics are first asked for, from the persisted stage data of its builds read
+ * straight from their directories, and builds that have none are recorded as missing. Nothing is persisted until the
+ * seed is done.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class StageStatistics {
+
+    private static final Logger LOGGER = Logger.getLogger(StageStatistics.class.getName());
+
+    /** Name of the samples file within the job directory */
+    static final String FILE_NAME = "wfapi-stage-stats.json";
+
+    /** Bump whenever the layout of the file changes, older files are then ignored */
+    static final int FORMAT_VERSION = 1;
+
+    /** How many builds to keep the stages of, per job */
+    static final int MAX_BUILDS = Integer.getInteger(StageStatistics.class.getName() + ".maxBuilds", 500);
+
+    /** How many missing builds to scan each time the statistics are asked for */
+    static final int FILL_BATCH = Math.max(1, Integer.getInteger(StageStatistics.class.getName() + ".fillBatch", 20));
+
+    /** How many builds to add before persisting the samples again */
+    static final int SAVE_EVERY = Math.max(1, Integer.getInteger(StageStatistics.class.getName() + ".saveEvery", 10));
+
+    private static final ObjectReader READER = JSONReadWrite.jsonMapper.readerFor(Samples.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /** Weak keys, so the samples go away with the job, compared by identity */
+    private static final Cache<WorkflowJob, Samples> SAMPLES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** The stages of one build */
+    @SuppressFBWarnings(value = {"URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", "UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD"},
+            justification = "Fields are read and written by Jackson")
+    public static final class BuildSample {
+        public int number;
+        public List<StageSample> stages = new ArrayList<>();
+    }
+
+    /** One stage of a build, only for stages that ran */
+    @SuppressFBWarnings(value = {"URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", "UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD"},
+            justification = "Fields are read and written by Jackson")
+    public static final class StageSample {
+        public String name;
+        public long durationMillis;
+        public boolean failed;
+    }
+
+    /** What is persisted for a job */
+    @SuppressFBWarnings(value = {"URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", "UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD"},
+            justification = "Fields are read and written by Jackson")
+    static final class Samples {
+        public int version;
+
+        /** Newest build first */
+        public List<BuildSample> builds = new ArrayList<>();
+
+        /** Numbers of the builds still to be added, newest first */
+        public List<Integer> missing = new ArrayList<>();
+
+        /** Whether the samples are being seeded, and should not be persisted yet, guarded by this */
+        private boolean seeding;
+
+        /** How many changes were made since the samples were persisted, guarded by this */
+        private int unsaved;
+
+        /** Whether background work for the job is queued or running */
+        private final AtomicBoolean busy = new AtomicBoolean();
+
+        synchronized void add(@NonNull BuildSample sample) {
+            builds.removeIf(b -> b.number == sample.number);
+            missing.remove(Integer.valueOf(sample.number));
+            int i = 0;
+            while (i < builds.size() && builds.get(i).number > sample.number) {
+                i++;
+            }
+            builds.add(i, sample);
+            trim();
+        }
+
+        synchronized void addMissing(int number) {
+            if (missing.contains(number) || builds.stream().anyMatch(b -> b.number == number)) {
+                return;
+            }
+            int i = 0;
+            while (i < missing.size() && missing.get(i) > number) {
+                i++;
+            }
+            missing.add(i, number);
+            trim();
+        }
+
+        synchronized boolean removeMissing(int number) {
+            return missing.remove(Integer.valueOf(number));
+        }
+
+        /** The newest missing builds, newest first */
+        synchronized List<Integer> getMissing(int max) {
+            return new ArrayList<>(missing.subList(0, Math.min(max, missing.size())));
+        }
+
+        synchronized boolean hasMissing() {
+            return !missing.isEmpty();
+        }
+
+        synchronized boolean hasAll() {
+            return !seeding && missing.isEmpty();
+        }
+
+        /** Keep the newest builds, and only the missing ones that would be kept once added */
+        private void trim() {
+            while (builds.size() > MAX_BUILDS) {
+                builds.remove(builds.size() - 1);
+            }
+            while (missing.size() > MAX_BUILDS) {
+                missing.remove(missing.size() - 1);
+            }
+            if (builds.size() == MAX_BUILDS) {
+                int oldest = builds.get(MAX_BUILDS - 1).number;
+                missing.removeIf(number -> number < oldest);
+            }
+        }
+
+        synchronized List<BuildSample> getNewest(int max) {
+            return new ArrayList<>(builds.subList(0, Math.min(max, builds.size())));
+        }
+    }
+
+    private StageStatistics() {
+    }
+
+    /**
+     * Get the stages of the job's most recent builds.
+     * @param max Maximum number of builds
+     * @return The builds, newest first
+     */
+    @NonNull
+    public static List<BuildSample> getBuilds(@NonNull WorkflowJob job, int max) {
+        return update(job).getNewest(max);
+    }
+
+    /** Whether all of the job's builds are in the statistics, rather than some still being added in the background */
+    public static boolean isComplete(@NonNull WorkflowJob job) {
+        return update(job).hasAll();
+    }
+
+    /** Get the samples of a job being asked for, seeding them or adding the missing builds in the background */
+    @NonNull
+    private static Samples update(@NonNull WorkflowJob job) {
+        Samples samples = samples(job);
+        seedLater(job, samples);
+        fillLater(job, samples);
+        return samples;
+    }
+
+    /** Add a completed build */
+    static void add(@NonNull WorkflowRun run, @NonNull RunExt runExt) {
+        Samples samples = samples(run.getParent());
+        synchronized (samples) {
+            samples.add(toSample(run.getNumber(), runExt));
+            saveLater(run.getParent(), samples);
+        }
+    }
+
+    /** Record a completed build whose run is not computed now, to be added when the statistics are next asked for */
+    static void addLater(@NonNull WorkflowRun run) {
+        Samples samples = samples(run.getParent());
+        synchronized (samples) {
+            samples.addMissing(run.getNumber());
+            saveLater(run.getParent(), samples);
+        }
+    }
+
+    /** Add a batch of the missing builds of a job in the background, unless that (or the seed) is under way already */
+    private static void fillLater(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        boolean fill;
+        synchronized (samples) {
+            fill = !samples.seeding && samples.hasMissing();
+        }
+        if (fill) {
+            runLater(job, samples, () -> fill(job, samples));
+        }
+    }
+
+    /** Seed the samples of a job in the background, unless that is under way already */
+    private static void seedLater(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        boolean seeding;
+        synchronized (samples) {
+            seeding = samples.seeding;
+        }
+        if (seeding) {
+            runLater(job, samples, () -> seed(job, samples));
+        }
+    }
+
+    /** Run background work for a job, one task at a time: if busy, or too many tasks are queued, the next access tries again */
+    private static void runLater(@NonNull WorkflowJob job, @NonNull Samples samples, @NonNull Runnable task) {
+        if (!samples.busy.compareAndSet(false, true)) {
+            return;
+        }
+        boolean queued = RunPrecomputer.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to update stage statistics for " + job.getFullName(), e);
+            } finally {
+                samples.busy.set(false);
+            }
+        });
+        if (!queued) {
+            samples.busy.set(false);
+        }
+    }
+
+    /**
+     * Scan the stages of the newest missing builds, without caching their runs (or persisting their stage data) so they
+     * do not take the place of the builds being viewed
+     */
+    private static void fill(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        for (int number : samples.getMissing(FILL_BATCH)) {
+            WorkflowRun run = job.getBuildByNumber(number);
+            if (run != null && run.isBuilding()) {
+                continue;  // Added once finalized
+            }
+            BuildSample sample = null;
+            if (run != null) {
+                try {
+                    RunExt runExt = findStages(job, number);
+                    sample = toSample(number, (runExt != null) ? runExt : RunExt.createNew(run));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Unable to compute " + run.getExternalizableId(), e);
+                }
+            }
+            synchronized (samples) {
+                if (sample != null) {
+                    samples.add(sample);
+                } else {
+                    samples.removeMissing(number);  // Deleted, or cannot be computed
+                }
+                saveLater(job, samples);
+            }
+        }
+        synchronized (samples) {
+            if (samples.unsaved > 0) {
+                save(job, samples);
+            }
+        }
+    }
+
+    @NonNull
+    static BuildSample toSample(int number, @NonNull RunExt runExt) {
+        BuildSample build = new BuildSample();
+        build.number = number;
+        if (runExt.getStages() != null) {
+            for (StageNodeExt stage : runExt.getStages()) {
+                if (stage.getStatus() == StatusExt.NOT_EXECUTED || stage.getStatus() == StatusExt.IN_PROGRESS) {
+                    continue;
+                }
+                StageSample sample = new StageSample();
+                sample.name = stage.getName();
+                sample.durationMillis = stage.getDurationMillis();
+                sample.failed = stage.getStatus() == StatusExt.FAILED;
+                build.stages.add(sample);
+            }
+        }
+        return build;
+    }
+
+    @NonNull
+    private static Samples samples(@NonNull WorkflowJob job) {
+        Samples samples;
+        try {
+            samples = SAMPLES.get(job, () -> {
+                Samples loaded = load(job);
+                if (loaded != null) {
+                    return loaded;
+                }
+                Samples seeded = new Samples();
+                seeded.version = FORMAT_VERSION;
+                seeded.seeding = true;
+                return seeded;
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unexpected error loading stage statistics", e);
+        }
+        return samples;
+    }
+
+    private static File getFile(@NonNull WorkflowJob job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    @CheckForNull
+    private static Samples load(@NonNull WorkflowJob job) {
+        File file = getFile(job);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Samples samples = READER.readValue(Files.readAllBytes(file.toPath()));
+            return (samples.version == FORMAT_VERSION && samples.builds != null) ? samples : null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to read stage statistics for " + job.getFullName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Start from the persisted stage data of the most recent builds, read straight from their directories, which is far
+     * cheaper than loading the builds, let alone scanning them. Builds without any are recorded as missing.
+     */
+    private static void seed(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        List<Integer> numbers = new ArrayList<>();
+        String[] names = job.getBuildDir().list();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    numbers.add(Integer.parseInt(name));
+                } catch (NumberFormatException e) {
+                    // Not a build, e.g. a permalink
+                }
+            }
+        }
+        numbers.sort(Collections.reverseOrder());
+
+        for (int number : numbers.subList(0, Math.min(MAX_BUILDS, numbers.size()))) {
+            RunExt runExt = findStages(job, number);
+            synchronized (samples) {
+                if (runExt != null) {
+                    samples.add(toSample(number, runExt));
+                } else {
+                    // Building, or without persisted stage data, for example just after an upgrade
+                    samples.addMissing(number);
+                }
+            }
+        }
+        synchronized (samples) {
+            samples.seeding = false;
+            save(job, samples);
+        }
+    }
+
+    /**
+     * Find the stages of a completed build already computed, in the run cache or persisted in its directory, without
+     * loading the build
+     * @return The run, only good for its stages, or null if they are not computed
+     */
+    @CheckForNull
+    private static RunExt findStages(@NonNull WorkflowJob job, int number) {
+        // Not through the run cache, to leave it to the builds being viewed
+        RunExt runExt = FlowNodeUtil.CacheExtension.all().get(0).getRunCache().asMap().get(job.getFullName() + '#' + number);
+        if (runExt == null) {
+            runExt = RunSnapshot.loadStages(new File(job.getBuildDir(), Integer.toString(number)), Integer.toString(number));
+        }
+        return runExt;
+    }
+
+    /**
+     * Persist the samples once a few changes were made to them, unless they are still being seeded, in which case that
+     * does it. Must hold the lock on the samples.
+     */
+    private static void saveLater(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        samples.unsaved++;
+        if (!samples.seeding && samples.unsaved >= SAVE_EVERY) {
+            save(job, samples);
+        }
+    }
+
+    /** Persist the changes not persisted yet of every job on shutdown */
+    @Terminator
+    public static void saveAll() {
+        for (Map.Entry<WorkflowJob, Samples> entry : SAMPLES.asMap().entrySet()) {
+            Samples samples = entry.getValue();
+            synchronized (samples) {
+                if (!samples.seeding && samples.unsaved > 0) {
+                    save(entry.getKey(), samples);
+                }
+            }
+        }
+    }
+
+    /** Must hold the lock on the samples */
+    private static void save(@NonNull WorkflowJob job, @NonNull Samples samples) {
+        samples.unsaved = 0;
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter(getFile(job).toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(JSONReadWrite.jsonMapper.writeValueAsString(samples));
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to persist stage statistics for " + job.getFullName(), e);
+        }
+    }
+}
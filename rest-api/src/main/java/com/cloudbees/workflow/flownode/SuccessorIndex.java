@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index from each node to the node that follows it, for one {@link FlowExecution}.
+ * <p>
+ * Nodes only know their parents, so finding the node after one otherwise means searching the graph from its heads.
+ * Node IDs are small consecutive integers, so this is stored as a single int array from parent ID to the ID of its
+ * only child. It is built on first use with one walk of the graph, and kept up to date for running builds by a
+ * {@link GraphListener}. Lookups that miss (a listener event not delivered yet, or non-numeric IDs) return null and
+ * the caller falls back to searching.
+ * <p>
+ * Nodes with more than one child, such as the start of a parallel, are not answered either: which branch the search
+ * finds first depends on how it walks back from the heads, and that is left to the search so the result is the same.
+ */
+final class SuccessorIndex {
+
+    private static final boolean DISABLED = Boolean.getBoolean(SuccessorIndex.class.getName() + ".disabled");
+
+    /** Weak keys, so the index goes away with the execution, compared by identity */
+    private static final Cache<FlowExecution, SuccessorIndex> INDEXES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** Marks a parent with more than one child */
+    private static final int SEVERAL = -1;
+
+    /** Child ID by parent ID, 0 where not known */
+    private int[] children = new int[64];
+
+    private SuccessorIndex() {
+    }
+
+    /**
+     * Find the node following this one
+     * @return The following node, or null if it is not known to the index or there are several
+     */
+    @CheckForNull
+    static FlowNode getNodeAfter(@NonNull FlowNode node) {
+        if (DISABLED) {
+            return null;
+        }
+        int id = parseId(node.getId());
+        if (id <= 0) {
+            return null;
+        }
+        FlowExecution execution = node.getExecution();
+        SuccessorIndex index = INDEXES.getIfPresent(execution);
+        if (index == null) {
+            index = new SuccessorIndex();
+            SuccessorIndex existing = INDEXES.asMap().putIfAbsent(execution, index);
+            if (existing != null) {
+                index = existing;
+            } else {
+                // Registered before walking, so nodes added meanwhile are recorded by the listener
+                index.addAll(execution.getCurrentHeads());
+            }
+        }
+
+        int childId = index.get(id);
+        if (childId <= 0) {
+            return null;
+        }
+        try {
+            return execution.getNode(Integer.toString(childId));
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private synchronized void addAll(@NonNull List<FlowNode> heads) {
+        DepthFirstScanner scanner = new DepthFirstScanner();
+        scanner.setup(heads);
+        for (FlowNode node : scanner) {
+            add(node);
+        }
+    }
+
+    private synchronized void add(@NonNull FlowNode node) {
+        int childId = parseId(node.getId());
+        if (childId <= 0) {
+            return;
+        }
+        for (String parent : node.getParentIds()) {
+            int parentId = parseId(parent);
+            if (parentId <= 0) {
+                continue;
+            }
+            if (parentId >= children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, parentId + 1));
+            }
+            int existing = children[parentId];
+            if (existing == 0) {
+                children[parentId] = childId;
+            } else if (existing != childId) {
+                // Nodes may be seen twice, by the walk and the listener
+                children[parentId] = SEVERAL;
+            }
+        }
+    }
+
+    private synchronized int get(int parentId) {
+        return (parentId < children.length) ? children[parentId] : 0;
+    }
+
+    /** Numeric node ID, or -1 for the (unexpected) non-numeric ones */
+    private static int parseId(@NonNull String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /** Extends the index of running builds as nodes are added */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class IndexUpdater implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            SuccessorIndex index = INDEXES.getIfPresent(node.getExecution());
+            if (index != null) {
+                index.add(node);
+            }
+        }
+    }
+}
@@ -26,12 +26,24 @@ package com.cloudbees.workflow.rest.endpoints;
 import com.cloudbees.workflow.rest.AbstractFlowNodeActionHandler;
 import com.cloudbees.workflow.rest.endpoints.flownode.Describe;
 import com.cloudbees.workflow.rest.endpoints.flownode.Log;
+import com.cloudbees.workflow.rest.endpoints.flownode.RawLog;
+import com.cloudbees.workflow.rest.endpoints.flownode.StageLogs;
+import com.cloudbees.workflow.rest.external.StageLogsExt;
+import com.cloudbees.workflow.util.ConditionalGet;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
 import hudson.Extension;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerNotDispatchable;
+import org.kohsuke.stapler.StaplerRequest2;
 
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * API Action handler to return {@link FlowNode} information.
@@ -50,16 +62,82 @@ public class FlowNodeAPI extends AbstractFlowNodeActionHandler {
 
     @ServeJson
     public Object doIndex() throws IOException {
-        return Describe.get(getNode());
+        return doDescribe();
     }
 
     @ServeJson
     public Object doDescribe() throws IOException {
+        HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagExecution(getNode().getExecution()));
+        if (notModified != null) {
+            return notModified;
+        }
         return Describe.get(getNode());
     }
 
-    @ServeJson
+    /**
+     * Kept for callers of the original method, see {@link #doLog(String)} for the {@code log} web method.
+     */
+    @StaplerNotDispatchable
     public Object doLog() {
-        return Log.get(getNode());
+        return doLog(null);
+    }
+
+    /**
+     * Also serves {@code log/raw}, the whole log as plain text, see {@link RawLog}.
+     * @param start Byte offset to return the log from, as returned in {@code nextStart} by the previous call,
+     *              to only get what was added since. The tail of the log if not given, or the whole log for
+     *              {@code log/raw}.
+     */
+    @ServeJson
+    public Object doLog(@QueryParameter String start) {
+        StaplerRequest2 req = Stapler.getCurrentRequest2();
+        if (req != null && "/raw".equals(req.getRestOfPath())) {
+            return rawLog(start);
+        }
+        HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagExecution(getNode().getExecution()));
+        if (notModified != null) {
+            return notModified;
+        }
+        if (start == null || start.isEmpty()) {
+            return Log.get(getNode());
+        }
+        try {
+            return Log.get(getNode(), Long.parseLong(start));
+        } catch (NumberFormatException e) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, "Invalid start offset: " + start);
+        }
+    }
+
+    private HttpResponse rawLog(String start) {
+        if (start == null || start.isEmpty()) {
+            return RawLog.get(getNode(), 0);
+        }
+        try {
+            return RawLog.get(getNode(), Long.parseLong(start));
+        } catch (NumberFormatException e) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, "Invalid start offset: " + start);
+        }
+    }
+
+    /**
+     * Get the logs of all the steps in a stage, in one response.
+     * @param starts Byte offsets to return step logs from, as comma separated {@code nodeId:offset} pairs with the
+     *               offsets returned in {@code nextStart} by the previous call. The tail of the log for other steps.
+     * @return The logs, or {@code 404 Not Found} if the node is not a stage
+     */
+    @ServeJson
+    public Object doStageLogs(@QueryParameter String starts) throws IOException {
+        HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagExecution(getNode().getExecution()));
+        if (notModified != null) {
+            return notModified;
+        }
+        Map<String, Long> startOffsets;
+        try {
+            startOffsets = StageLogs.parseStarts(starts);
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, "Invalid start offsets: " + starts);
+        }
+        StageLogsExt stageLogs = StageLogs.get(getNode(), startOffsets);
+        return (stageLogs != null) ? stageLogs : HttpResponses.notFound();
     }
 }
@@ -24,14 +24,29 @@
 package com.cloudbees.workflow.rest.endpoints;
 
 import com.cloudbees.workflow.rest.AbstractWorkflowJobActionHandler;
+import com.cloudbees.workflow.rest.external.JobChangesExt;
 import com.cloudbees.workflow.rest.external.JobExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.RunsDeltaExt;
+import com.cloudbees.workflow.rest.external.RunsPageExt;
+import com.cloudbees.workflow.rest.external.StageStatisticsExt;
+import com.cloudbees.workflow.util.ConditionalGet;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
 import hudson.Extension;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerNotDispatchable;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.WebMethod;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -57,18 +72,109 @@ public class JobAPI extends AbstractWorkflowJobActionHandler {
         return getUrl(job) + "runs";
     }
 
+    public static String getRunsDeltaUrl(WorkflowJob job, String sinceVersion) {
+        try {
+            return getRunsUrl(job) + "?sinceVersion=" + URLEncoder.encode(sinceVersion, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is a mandated charset, yet the JVM does not provide support for it", e);
+        }
+    }
+
+    public static String getStreamUrl(WorkflowJob job) {
+        return getUrl(job) + "stream";
+    }
+
+    public static String getChangesUrl(WorkflowJob job) {
+        return getUrl(job) + "changes";
+    }
+
+    public static String getStageStatisticsUrl(WorkflowJob job) {
+        return getUrl(job) + "stageStatistics";
+    }
+
     /**
      * Get all Workflow Job runs/builds since the specified run/build name.
+     * Kept for callers of the original method, see {@link #doRunsPage} for the {@code runs} web method.
      * @param since The run/build name at which to stop returning (inclusive),
      *              or null/empty if all runs/builds are to be returned.
      * @param fullStages Return the stageNodes within each stage
      * @return The runs list.
      */
-    @ServeJson
-    public List<RunExt> doRuns(@QueryParameter String since, @QueryParameter boolean fullStages) {
+    @StaplerNotDispatchable
+    public List<RunExt> doRuns(String since, boolean fullStages) {
         return JobExt.create(getJob().getBuilds(), since, fullStages);
     }
 
+    /**
+     * Get all Workflow Job runs/builds since the specified run/build name, or one page of them.
+     * @param since The run/build name at which to stop returning (inclusive),
+     *              or null/empty if all runs/builds are to be returned.
+     * @param fullStages Return the stageNodes within each stage
+     * @param limit Page size, if paging
+     * @param before Build number to page back from (exclusive), if paging
+     * @param after Build number to page forward from (exclusive), if paging
+     * @param sinceVersion The version of the job (see {@link #doChanges()}) the client has the runs for, or empty
+     *                     if it has none, to only get the runs changed since
+     * @return The runs list, or a {@link RunsPageExt} with links to the next and previous pages if paging,
+     *         or a {@link RunsDeltaExt} if a version was given, or {@code 304 Not Modified} if the client already has them.
+     */
+    @WebMethod(name = "runs")
+    @ServeJson
+    public Object doRunsPage(@QueryParameter String since, @QueryParameter boolean fullStages,
+                             @QueryParameter int limit, @QueryParameter int before, @QueryParameter int after,
+                             @QueryParameter String sinceVersion) {
+        WorkflowJob job = getJob();
+        if (sinceVersion != null) {
+            return RunsDeltaExt.create(job, sinceVersion, fullStages);
+        }
+        if (limit > 0 || before > 0 || after > 0) {
+            List<WorkflowRun> pageRuns = RunsPageExt.getPageRuns(job, limit, before, after);
+            // The page links depend on whether there are runs either side of it
+            WorkflowRun first = job.getFirstBuild();
+            WorkflowRun last = job.getLastBuild();
+            HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagRuns(pageRuns,
+                    (first != null) ? first.getNumber() : 0, (last != null) ? last.getNumber() : 0));
+            if (notModified != null) {
+                return notModified;
+            }
+            return RunsPageExt.create(job, pageRuns, limit, before, after, fullStages);
+        }
+        List<WorkflowRun> runs = JobExt.selectRuns(job.getBuilds(), since);
+        HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagRuns(runs));
+        if (notModified != null) {
+            return notModified;
+        }
+        return JobExt.create(runs, null, fullStages);
+    }
+
+    /**
+     * Get the version of the job's runs, which changes whenever they do.
+     * Cheap enough for clients to poll, fetching the runs only when it changes.
+     */
+    @ServeJson
+    public JobChangesExt doChanges() {
+        return JobChangesExt.create(getJob());
+    }
+
+    /**
+     * Stream the job's runs as server-sent events: a {@code runs} event, in the same form as {@link #doRunsPage} with
+     * {@code sinceVersion} and {@code fullStages}, whenever they change.
+     * Answers {@code 501 Not Implemented} if streaming is not available, for clients to poll instead.
+     */
+    public void doStream(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        JobStream.subscribe(getJob(), req, rsp);
+    }
+
+    /**
+     * Get the duration and failure statistics of each stage over the job's most recent builds,
+     * kept up to date as builds complete rather than computed from the runs.
+     * @param builds How many of the most recent builds to cover, or 0 for all of those kept
+     */
+    @ServeJson
+    public StageStatisticsExt doStageStatistics(@QueryParameter int builds) {
+        return StageStatisticsExt.create(getJob(), builds);
+    }
+
     @ServeJson
     public JobExt doIndex() {
         return doDescribe();
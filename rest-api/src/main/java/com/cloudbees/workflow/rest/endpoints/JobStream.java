@@ -0,0 +1,443 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.endpoints;
+
+import com.cloudbees.workflow.flownode.JobChangeTracker;
+import com.cloudbees.workflow.rest.external.JobExt;
+import com.cloudbees.workflow.rest.external.RunsDeltaExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.cloudbees.workflow.util.ModelUtil;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the runs of a job to every client streaming it, as server-sent events.
+ * <p>
+ * When {@link JobChangeTracker} reports a change, the runs that changed since the last push, plus the runs in progress
+ * and the ones deleted, are computed once as a {@link RunsDeltaExt} (with their stages), shortly afterwards so that
+ * bursts of changes are pushed together, and the same {@code runs} event is written to every subscriber coming through
+ * the same root URL. Subscribers that did not get the last push (new ones, or ones reconnecting with an older
+ * {@code Last-Event-ID}) are sent all the runs instead, as a reset. While a build is in progress its job changes with
+ * every step, and timings change without any event, so the runs are instead pushed every {@link #REFRESH_MILLIS}.
+ * Either way the work done depends on the number of jobs streamed and how often they change, not on the number of
+ * clients.
+ * </p>
+ */
+final class JobStream {
+
+    private static final Logger LOGGER = Logger.getLogger(JobStream.class.getName());
+
+    static final boolean DISABLED = Boolean.getBoolean(JobStream.class.getName() + ".disabled");
+
+    /** How long to wait after a change for more changes, before pushing */
+    private static final long DEBOUNCE_MILLIS = Long.getLong(JobStream.class.getName() + ".debounceMillis", 500);
+
+    /** How often to push while a build is in progress, at most */
+    private static final long REFRESH_MILLIS = Long.getLong(JobStream.class.getName() + ".refreshMillis", 5000);
+
+    /** How often to write a comment to idle streams, to notice clients that have gone */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Tunable from the script console")
+    static long HEARTBEAT_MILLIS = Long.getLong(JobStream.class.getName() + ".heartbeatMillis", 30000);
+
+    /** How long a stream lasts, before the client has to reconnect (which browsers do by themselves) */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Tunable from the script console")
+    static long TIMEOUT_MILLIS = Long.getLong(JobStream.class.getName() + ".timeoutMillis", TimeUnit.MINUTES.toMillis(5));
+
+    /** How many events a client may fall behind by, before it is dropped */
+    private static final int MAX_QUEUED_EVENTS = Integer.getInteger(JobStream.class.getName() + ".maxQueuedEvents", 4);
+
+    /** How long a client may leave an event unread, before it is dropped */
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong(JobStream.class.getName() + ".writeTimeoutMillis", 60000);
+
+    private static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(
+            Integer.getInteger(JobStream.class.getName() + ".threads", 2),
+            new NamingThreadFactory(new DaemonThreadFactory(), "JobStream"));
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    /** How long clients should wait before reconnecting */
+    private static final byte[] RETRY = ("retry: " + REFRESH_MILLIS + "\n\n").getBytes(StandardCharsets.UTF_8);
+
+    /** Streams with subscribers, guarded by itself */
+    private static final Map<WorkflowJob, JobStream> STREAMS = new HashMap<>();
+
+    static {
+        JobChangeTracker.addObserver(JobStream::changed);
+    }
+
+    private final WorkflowJob job;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledFuture<?> heartbeat;
+
+    /** The next push, guarded by itself */
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> pending;
+
+    /**
+     * The job version the runs were last made at, the version before that which the changes are since, the changes
+     * and all the runs at that version (only made once a subscriber needs them), and their events by root URL.
+     * Only touched by the push task.
+     */
+    private String lastVersion;
+    private String lastBaseVersion;
+    private RunsDeltaExt lastDelta;
+    private RunsDeltaExt lastReset;
+    private final Map<String, byte[]> lastDeltaEvents = new HashMap<>();
+    private final Map<String, byte[]> lastResetEvents = new HashMap<>();
+
+    /** Whether a build was in progress when the runs were last made, and when that was */
+    private volatile boolean lastInProgress;
+    private volatile long lastCreatedMillis;
+
+    private JobStream(@NonNull WorkflowJob job) {
+        this.job = job;
+        this.heartbeat = EXECUTOR.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start streaming a job's runs to the client making this request.
+     * The request is put in asynchronous mode, and this returns straight away.
+     */
+    static void subscribe(@NonNull WorkflowJob job, @NonNull StaplerRequest2 req, @NonNull StaplerResponse2 rsp) throws IOException {
+        if (DISABLED || !req.isAsyncSupported()) {
+            // Clients fall back to polling
+            rsp.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
+            return;
+        }
+        rsp.setContentType("text/event-stream; charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        // Stop reverse proxies buffering the events
+        rsp.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext context = req.startAsync();
+        context.setTimeout(TIMEOUT_MILLIS);
+
+        JobStream stream;
+        Subscriber subscriber;
+        synchronized (STREAMS) {
+            stream = STREAMS.get(job);
+            if (stream == null) {
+                stream = new JobStream(job);
+                STREAMS.put(job, stream);
+            }
+            // Links are made for the root URL this client came through, which may differ between clients
+            subscriber = stream.new Subscriber(context, ModelUtil.getRootUrl(), req.getHeader("Last-Event-ID"));
+            subscriber.send(RETRY);
+            stream.subscribers.add(subscriber);
+        }
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                subscriber.close();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                subscriber.close();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                subscriber.close();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        subscriber.start();
+        // Catch the new subscriber up with anything that changed since it last fetched the runs
+        stream.schedulePush(DEBOUNCE_MILLIS);
+    }
+
+    private void unsubscribe(@NonNull Subscriber subscriber) {
+        synchronized (STREAMS) {
+            subscribers.remove(subscriber);
+            if (subscribers.isEmpty() && STREAMS.get(job) == this) {
+                STREAMS.remove(job);
+                heartbeat.cancel(false);
+                // A push may still be scheduled, and will not schedule another when it finds no subscribers
+            }
+        }
+    }
+
+    /** The number of clients streaming a job */
+    static int countSubscribers(@NonNull WorkflowJob job) {
+        synchronized (STREAMS) {
+            JobStream stream = STREAMS.get(job);
+            return stream == null ? 0 : stream.subscribers.size();
+        }
+    }
+
+    private static void changed(@NonNull WorkflowJob job) {
+        JobStream stream;
+        synchronized (STREAMS) {
+            stream = STREAMS.get(job);
+        }
+        if (stream != null) {
+            stream.schedulePush(stream.getPushDelay());
+        }
+    }
+
+    /**
+     * How long to wait before pushing a change.
+     * A running build changes its job with every step, so while one is in progress the runs are made at most every
+     * {@link #REFRESH_MILLIS}, however often the job changes.
+     */
+    private long getPushDelay() {
+        if (!lastInProgress) {
+            return DEBOUNCE_MILLIS;
+        }
+        return Math.max(DEBOUNCE_MILLIS, lastCreatedMillis + REFRESH_MILLIS - System.currentTimeMillis());
+    }
+
+    /** Push after a delay, unless a push is already due sooner */
+    private void schedulePush(long delay) {
+        synchronized (scheduleLock) {
+            if (pending != null) {
+                if (pending.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                    return;
+                }
+                pending.cancel(false);
+            }
+            pending = EXECUTOR.schedule(this::push, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void push() {
+        synchronized (scheduleLock) {
+            pending = null;
+        }
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            String version = JobChangeTracker.getVersion(job);
+            // Nothing changed and nothing running, e.g. a subscriber joining an idle job: the last runs are current.
+            // A subscriber joining while a build runs gets the runs made last, which are at most REFRESH_MILLIS old.
+            if ((!version.equals(lastVersion) || lastInProgress) && getPushDelay() <= DEBOUNCE_MILLIS) {
+                lastBaseVersion = lastVersion;
+                lastDelta = (lastBaseVersion != null) ? RunsDeltaExt.create(job, lastBaseVersion, true) : null;
+                lastReset = null;
+                lastVersion = (lastDelta != null) ? lastDelta.getVersion() : version;
+                lastInProgress = isInProgress();
+                lastCreatedMillis = System.currentTimeMillis();
+                lastDeltaEvents.clear();
+                lastResetEvents.clear();
+            }
+            for (Subscriber subscriber : subscribers) {
+                byte[] event;
+                if (lastDelta != null && lastBaseVersion.equals(subscriber.knownVersion)) {
+                    event = lastDeltaEvents.computeIfAbsent(subscriber.rootUrl, rootUrl -> createEvent(rootUrl, lastDelta));
+                } else if (lastVersion.equals(subscriber.knownVersion)) {
+                    continue;  // Up to date
+                } else {
+                    if (lastReset == null) {
+                        // Everything there is, for those that have not been following
+                        lastReset = RunsDeltaExt.create(job, "", true);
+                    }
+                    event = lastResetEvents.computeIfAbsent(subscriber.rootUrl, rootUrl -> createEvent(rootUrl, lastReset));
+                }
+                // Subscribers only need each event once
+                if (subscriber.lastEvent != event) {
+                    subscriber.lastEvent = event;
+                    subscriber.knownVersion = lastVersion;
+                    subscriber.send(event);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to push the runs of " + job.getFullName(), e);
+        }
+        if (lastInProgress) {
+            // Timings of running builds change without any event, and changes put off above are still to be pushed
+            schedulePush(getPushDelay());
+        }
+    }
+
+    /** Whether any of the runs a client is shown is in progress */
+    private boolean isInProgress() {
+        for (WorkflowRun run : JobExt.selectRuns(job.getBuilds(), null)) {
+            if (run.isBuilding()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The event for runs last made, with links for a root URL.
+     * Its ID is the version the subscriber is then known to be up to date with, to send back as {@code Last-Event-ID}.
+     */
+    @NonNull
+    private byte[] createEvent(@NonNull String rootUrl, @NonNull RunsDeltaExt delta) {
+        return ModelUtil.withRootUrl(rootUrl, () -> {
+            try {
+                delta.set_links((RunsDeltaExt.RunsDeltaLinks) new RunsDeltaExt.RunsDeltaLinks().initSelf(JobAPI.getStreamUrl(job)));
+                return ("id: " + lastVersion + "\nevent: runs\ndata: " + JSONReadWrite.jsonMapper.writeValueAsString(delta) + "\n\n")
+                        .getBytes(StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to serialize runs", e);
+            }
+        });
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isStalled(now)) {
+                LOGGER.log(Level.FINE, "Dropping a stream of {0} that is not being read", job.getFullName());
+                subscriber.close();
+            } else {
+                subscriber.send(HEARTBEAT);
+            }
+        }
+    }
+
+    /**
+     * One client's stream.
+     * Events are queued, and written only when the container can take them without blocking, so a slow client never
+     * holds up the threads pushing to everyone else. A client that falls too far behind is dropped, and reconnects
+     * (getting the current runs) once it catches up.
+     */
+    private final class Subscriber implements WriteListener {
+        private final AsyncContext context;
+        private final String rootUrl;
+
+        /** The last event sent, and the job version the client is known to be up to date with, only touched by the push task */
+        private byte[] lastEvent;
+        private String knownVersion;
+
+        /** Events not yet written, and when the oldest of them was queued, guarded by this */
+        private final Deque<byte[]> queue = new ArrayDeque<>();
+        private long queuedSince;
+        private boolean started;
+        private boolean closed;
+
+        Subscriber(@NonNull AsyncContext context, @NonNull String rootUrl, @CheckForNull String knownVersion) {
+            this.context = context;
+            this.rootUrl = rootUrl;
+            this.knownVersion = knownVersion;
+        }
+
+        /** Start writing, in non-blocking mode: the container calls {@link #onWritePossible} once it can take events */
+        synchronized void start() throws IOException {
+            started = true;
+            context.getResponse().getOutputStream().setWriteListener(this);
+        }
+
+        void send(@NonNull byte[] event) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (queue.size() < MAX_QUEUED_EVENTS) {
+                    if (queue.isEmpty()) {
+                        queuedSince = System.currentTimeMillis();
+                    }
+                    queue.add(event);
+                    if (started) {
+                        onWritePossible();
+                    }
+                    return;
+                }
+            }
+            LOGGER.log(Level.FINE, "Dropping a stream of {0} that is not keeping up", job.getFullName());
+            close();
+        }
+
+        synchronized boolean isStalled(long now) {
+            return !queue.isEmpty() && now - queuedSince > WRITE_TIMEOUT_MILLIS;
+        }
+
+        @Override
+        public void onWritePossible() {
+            synchronized (this) {
+                try {
+                    ServletOutputStream out = context.getResponse().getOutputStream();
+                    while (!closed && !queue.isEmpty() && out.isReady()) {
+                        out.write(queue.poll());
+                        queuedSince = System.currentTimeMillis();
+                    }
+                    if (!closed && queue.isEmpty() && out.isReady()) {
+                        out.flush();
+                    }
+                    return;
+                } catch (IOException | IllegalStateException e) {
+                    // The client has gone
+                    LOGGER.log(Level.FINE, "Closing stream", e);
+                }
+            }
+            close();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.log(Level.FINE, "Closing stream", t);
+            close();
+        }
+
+        void close() {
+            synchronized (this) {
+                if (!closed) {
+                    closed = true;
+                    queue.clear();
+                    try {
+                        context.complete();
+                    } catch (IllegalStateException e) {
+                        // Already completed by the container
+                    }
+                }
+            }
+            unsubscribe(this);
+        }
+    }
+}
@@ -26,8 +26,10 @@ package com.cloudbees.workflow.rest.endpoints;
 import com.cloudbees.workflow.rest.AbstractWorkflowRunActionHandler;
 import com.cloudbees.workflow.rest.external.BuildArtifactExt;
 import com.cloudbees.workflow.rest.external.ChangeSetExt;
+import com.cloudbees.workflow.rest.external.LogSearchExt;
 import com.cloudbees.workflow.rest.external.PendingInputActionsExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.util.ConditionalGet;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
 import hudson.Extension;
@@ -40,16 +42,20 @@ import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 
@@ -96,25 +102,52 @@ public class RunAPI extends AbstractWorkflowRunActionHandler {
         }
     }
 
+    public static String getLogSearchUrl(WorkflowRun run, String query) {
+        try {
+            return getUrl(run) + "logSearch?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is a mandated charset, yet the JVM does not provide support for it", e);
+        }
+    }
+
     public static String getArtifactUrl(WorkflowRun run, Run<WorkflowJob, WorkflowRun>.Artifact artifact) {
         return ModelUtil.getFullItemUrl(run.getUrl()) + "artifact/" + artifact.getHref();
     }
 
     @Restricted(DoNotUse.class) // WebMethod
     @ServeJson
-    public RunExt doIndex() {
+    public Object doIndex() {
         return doDescribe(false);
     }
 
     /**
      * @param fullStages Return the stageNodes within each stage
+     * @return The run, or {@code 304 Not Modified} if the client already has it
      */
     @Restricted(NoExternalUse.class) // WebMethod
     @ServeJson
-    public RunExt doDescribe(@QueryParameter boolean fullStages) {
+    public Object doDescribe(@QueryParameter boolean fullStages) {
+        HttpResponse notModified = ConditionalGet.check(ConditionalGet.tagRuns(Collections.singletonList(getRun())));
+        if (notModified != null) {
+            return notModified;
+        }
         return fullStages ? RunExt.create(getRun()) : RunExt.create(getRun()).createWrapper();
     }
 
+    /**
+     * Search the logs of the steps in the run's stages.
+     * @param q Text to search for, case sensitive
+     * @return The matching lines, see {@link LogSearchExt}
+     */
+    @Restricted(DoNotUse.class) // WebMethod
+    @ServeJson
+    public Object doLogSearch(@QueryParameter String q) {
+        if (q == null || q.isEmpty()) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, "Nothing to search for");
+        }
+        return LogSearchExt.create(getRun(), q);
+    }
+
     @Restricted(DoNotUse.class) // WebMethod
     @ServeJson
     public List<ChangeSetExt> doChangesets() {
@@ -23,6 +23,7 @@
  */
 package com.cloudbees.workflow.rest.endpoints.flownode;
 
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
 import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
 import com.cloudbees.workflow.rest.external.FlowNodeExt;
 import com.cloudbees.workflow.rest.external.RunExt;
@@ -54,13 +55,19 @@ public class Describe {
     public static FlowNodeExt get(FlowNode node) throws IOException {
         if (StageNodeExt.isStageNode(node)) {
 
-            // Digest the WorkflowRun to get the stages, using cache if possible.
-            // Future optimization for big runs: use the blackLists in the ForkScanner only digest until the
-            // Node before the stage
+            // Use the cached run if we have it, otherwise only digest the nodes within the stage
+            // Falling back to digesting the WorkflowRun to get the stages, for stages still running
             Queue.Executable exec = node.getExecution().getOwner().getExecutable();
             if (exec instanceof WorkflowRun) {
                 WorkflowRun run = (WorkflowRun)exec;
-                RunExt runExt = RunExt.create(run);
+                RunExt runExt = FlowNodeUtil.isNotPartOfRunningBuild(node.getExecution()) ? FlowNodeUtil.getCachedRun(run) : null;
+                if (runExt == null) {
+                    StageNodeExt stage = StageNodeExt.createCompletedStage(run, node);
+                    if (stage != null) {
+                        return stage;
+                    }
+                    runExt = RunExt.create(run);
+                }
                 for (StageNodeExt st : runExt.getStages()) {
                     if (st.getId().equals(node.getId())) {
                         return st;
@@ -40,4 +40,11 @@ public class Log {
     public static FlowNodeLogExt get(FlowNode node) {
         return FlowNodeLogExt.create(node);
     }
+
+    /**
+     * @param start Offset to return the log from, or null for its tail
+     */
+    public static FlowNodeLogExt get(FlowNode node, Long start) {
+        return FlowNodeLogExt.create(node, start);
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.endpoints.flownode;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.console.AnnotatedLargeText;
+import hudson.console.PlainTextConsoleOutputStream;
+import org.jenkinsci.plugins.workflow.actions.LogAction;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link FlowNode} "log/raw" endpoint: the node's log as plain text, streamed without building it in memory.
+ * <p>
+ * {@code X-Text-Size} has the length of the stored log. As with Jenkins' own {@code progressiveText}, the {@code start}
+ * offset is one in the stored log (which {@code nextStart} of the "log" endpoint also uses) and console notes are
+ * removed from the text written, so the response may be shorter than the part of the log it covers. A single HTTP byte
+ * range is answered with the stored bytes instead, console notes included, so its offsets are those of
+ * {@code X-Text-Size} and {@code Content-Range}. Logs kept in a file of their own (builds from before pluggable log
+ * storage) are then copied with {@link FileChannel#transferTo}.
+ * </p>
+ */
+public class RawLog {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    public static String getUrl(FlowNode node) {
+        return Log.getUrl(node) + "/raw";
+    }
+
+    /**
+     * @param start Byte offset in the stored log to start from, when not asked for a byte range
+     */
+    public static HttpResponse get(FlowNode node, long start) {
+        LogAction logAction = node.getAction(LogAction.class);
+        AnnotatedLargeText<? extends FlowNode> logText = (logAction != null) ? logAction.getLogText() : null;
+        if (logText == null) {
+            return HttpResponses.notFound();
+        }
+        if (start < 0) {
+            return HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, "Invalid start offset: " + start);
+        }
+        return new HttpResponse() {
+            @Override
+            public void generateResponse(StaplerRequest2 req, StaplerResponse2 rsp, Object it) throws IOException {
+                write(node, logText, start, req.getHeader("Range"), rsp);
+            }
+        };
+    }
+
+    static void write(@NonNull FlowNode node, @NonNull AnnotatedLargeText<?> logText, long start,
+                      @CheckForNull String range, @NonNull StaplerResponse2 rsp) throws IOException {
+        // Fixed now, so a running step's log is served up to where it was when asked for
+        long length = logText.length();
+        rsp.setHeader("Accept-Ranges", "bytes");
+        rsp.setHeader("X-Text-Size", Long.toString(length));
+        rsp.setContentType("text/plain;charset=UTF-8");
+
+        Matcher matcher = (range != null) ? RANGE.matcher(range.trim()) : null;
+        if (matcher == null || !matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            // Anything else, including multiple ranges, gets the plain text from the start offset
+            if (start < length) {
+                copy(logText, start, length, new PlainTextConsoleOutputStream(rsp.getOutputStream()));
+            }
+            return;
+        }
+
+        long end = length;  // exclusive
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // Suffix range: the last N bytes
+                start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(length, Long.parseLong(matcher.group(2)) + 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Too long to be a valid offset
+            start = length;
+        }
+        if (start >= end) {
+            rsp.setHeader("Content-Range", "bytes */" + length);
+            rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        rsp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+        rsp.setContentLengthLong(end - start);
+
+        File file = getLogFile(node, length);
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel out = Channels.newChannel(rsp.getOutputStream());
+                long position = start;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, out);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+        } else {
+            copy(logText, start, end, rsp.getOutputStream());
+        }
+    }
+
+    /** Writes the stored log from start to end (exclusive), then closes the stream */
+    private static void copy(@NonNull AnnotatedLargeText<?> logText, long start, long end, @NonNull OutputStream out) throws IOException {
+        BoundedOutputStream bounded = new BoundedOutputStream(out, end - start);
+        try {
+            logText.writeRawLogTo(start, bounded);
+        } catch (EndReached e) {
+            // Stopped reading the log at the end asked for
+        }
+        bounded.close();
+    }
+
+    /**
+     * The file holding the whole log of a completed node and nothing else, as kept before pluggable log storage.
+     * Logs in the newer storage are parts of the build log, so are left to {@link AnnotatedLargeText} to read.
+     * @return The file, or null if there is none, or it does not match the log
+     */
+    @CheckForNull
+    private static File getLogFile(@NonNull FlowNode node, long length) {
+        if (node.isActive()) {
+            return null;
+        }
+        try {
+            File file = new File(node.getExecution().getOwner().getRootDir(), node.getId() + ".log");
+            return (file.isFile() && file.length() == length) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Passes on the first so many bytes written to it, then stops the writer */
+    private static final class BoundedOutputStream extends FilterOutputStream {
+        private long remaining;
+
+        BoundedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new EndReached();
+            }
+            int n = (int) Math.min(len, remaining);
+            out.write(b, off, n);
+            remaining -= n;
+            if (n < len) {
+                throw new EndReached();
+            }
+        }
+    }
+
+    /** Thrown to stop reading the log once the bytes asked for have been written */
+    private static final class EndReached extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
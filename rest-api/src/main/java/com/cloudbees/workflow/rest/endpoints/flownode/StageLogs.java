@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.endpoints.flownode;
+
+import com.cloudbees.workflow.rest.endpoints.FlowNodeAPI;
+import com.cloudbees.workflow.rest.external.FlowNodeExt;
+import com.cloudbees.workflow.rest.external.StageLogsExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stage {@link FlowNode} "stageLogs" endpoint: the logs of all the steps in the stage.
+ */
+public class StageLogs {
+
+    public static String getUrl(FlowNode node) {
+        return FlowNodeAPI.getUrl(node) + "/stageLogs";
+    }
+
+    /**
+     * @param node Start node of the stage
+     * @param starts Offset to return the log of a step from, by node ID
+     * @return The logs, or null if the node is not a stage
+     */
+    @CheckForNull
+    public static StageLogsExt get(FlowNode node, Map<String, Long> starts) throws IOException {
+        if (!StageNodeExt.isStageNode(node)) {
+            return null;
+        }
+        // The stage as it is cached, to find its steps without scanning it again
+        FlowNodeExt stage = Describe.get(node);
+        if (!(stage instanceof StageNodeExt)) {
+            return null;
+        }
+        return StageLogsExt.create(node, (StageNodeExt) stage, starts);
+    }
+
+    /**
+     * Parse the per-step offsets
+     * @param starts Comma separated {@code nodeId:offset} pairs, or null
+     * @throws IllegalArgumentException If not in that form
+     */
+    @NonNull
+    public static Map<String, Long> parseStarts(@CheckForNull String starts) {
+        if (starts == null || starts.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> offsets = new HashMap<>();
+        for (String pair : starts.split(",")) {
+            int colon = pair.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException(pair);
+            }
+            offsets.put(pair.substring(0, colon).trim(), Long.parseLong(pair.substring(colon + 1).trim()));
+        }
+        return offsets;
+    }
+}
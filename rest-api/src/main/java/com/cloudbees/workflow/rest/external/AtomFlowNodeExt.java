@@ -23,13 +23,9 @@
  */
 package com.cloudbees.workflow.rest.external;
 
-import com.cloudbees.workflow.rest.endpoints.flownode.Log;
-import com.cloudbees.workflow.rest.hal.Link;
-import com.cloudbees.workflow.util.ModelUtil;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.actions.LogAction;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
-import org.kohsuke.stapler.Stapler;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import java.util.ArrayList;
@@ -56,7 +52,7 @@ public class AtomFlowNodeExt extends FlowNodeExt {
         flowNodeExt.addBasicNodeData(node);
         if (flowNodeExt.getStatus() != StatusExt.NOT_EXECUTED) {
             if (node.getAction(LogAction.class) != null) {
-                flowNodeExt.get_links().setLog(Link.newLink(Log.getUrl(node)));
+                flowNodeExt.get_links().addLog(node);
             }
         }
         flowNodeExt.addParentNodeRefs(node);
@@ -69,11 +65,11 @@ public class AtomFlowNodeExt extends FlowNodeExt {
         AtomFlowNodeExt basic = new AtomFlowNodeExt();
         // It would be super awesome if we didn't need to make a throwaway object
         basic.addBasicNodeData(node, execNodeName, duration, startTimeMillis, status, error);
-        if (basic.getStatus() != StatusExt.NOT_EXECUTED && Stapler.getCurrentRequest2() != null) {
+        if (basic.getStatus() != StatusExt.NOT_EXECUTED) {
             LogAction la = node.getAction(LogAction.class);
             if (la != null) {
-                basic.get_links().setLog(Link.newLink(Log.getUrl(node)));
-                basic.get_links().setConsole(Link.newLink(ModelUtil.getFullItemUrl(node) + la.getUrlName()));
+                basic.get_links().addLog(node);
+                basic.get_links().addConsole(node, la.getUrlName());
             }
         }
         basic.addParentNodeRefs(node);
@@ -1,6 +1,6 @@
 package com.cloudbees.workflow.rest.external;
 
-import com.google.common.collect.Iterables;
+import com.cloudbees.workflow.flownode.NodeIdList;
 import com.google.common.collect.Lists;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
@@ -32,11 +32,25 @@ import java.util.Collection;
 public class ChunkVisitor extends StandardChunkVisitor {
     ArrayDeque<StageNodeExt> stages = new ArrayDeque<>();
     FlowNode firstExecuted = null;
-    ArrayDeque<AtomFlowNodeExt> stageContents = new ArrayDeque<>();
+    /** The earliest {@link StageNodeExt#MAX_CHILD_NODES} atoms of the current stage, only these are ever returned */
+    ArrayDeque<PendingAtom> stageContents = new ArrayDeque<>();
     WorkflowRun run;
     ArrayList<String> stageNodeIds = new ArrayList<>();
     boolean isLastChunk = true;
 
+    /** An atom node and its neighbours, kept until we know it will be returned so we only compute status and timing for those */
+    static final class PendingAtom {
+        final FlowNode before;
+        final FlowNode node;
+        final FlowNode after;
+
+        PendingAtom(@CheckForNull FlowNode before, @NonNull FlowNode node, @CheckForNull FlowNode after) {
+            this.before = before;
+            this.node = node;
+            this.after = after;
+        }
+    }
+
     public ChunkVisitor(@NonNull WorkflowRun run) {
         this.run = run;
     }
@@ -96,12 +110,13 @@ public class ChunkVisitor extends StandardChunkVisitor {
         //  and only store the FlowNodes -- not the materialized objects.
         stageExt.addBasicNodeData(chunk.getFirstNode(), "", dur, startTime, StatusExt.fromGenericStatus(status), chunk.getLastNode().getError());
 
-        int childNodeLength = Math.min(StageNodeExt.MAX_CHILD_NODES, stageContents.size());
-        ArrayList<AtomFlowNodeExt> internals = new ArrayList<>(childNodeLength);
-        Iterables.addAll(internals, Iterables.limit(stageContents, StageNodeExt.MAX_CHILD_NODES));
+        ArrayList<AtomFlowNodeExt> internals = new ArrayList<>(stageContents.size());
+        for (PendingAtom pending : stageContents) {
+            internals.add(makeAtomNode(run, pending.before, pending.node, pending.after));
+        }
         stageExt.setStageFlowNodes(internals);
 
-        stageExt.allChildNodeIds = new ArrayList<String>(Lists.reverse(stageNodeIds));
+        stageExt.allChildNodeIds = NodeIdList.of(Lists.reverse(stageNodeIds));
 
         this.stages.push(stageExt);
     }
@@ -149,11 +164,13 @@ public class ChunkVisitor extends StandardChunkVisitor {
         long pause = PauseAction.getPauseDuration(atomNode);
         chunk.setPauseTimeMillis(chunk.getPauseTimeMillis()+pause);
 
-        // TODO this is rather inefficient, we should optimize to use a circular buffer or ArrayList with limited size
-        // And then only create the node container objects when we hit the start (doing timing ETC at that point)
-        AtomFlowNodeExt ext = makeAtomNode(run, before, atomNode, after);
-        if (ext != null) {
-            stageContents.push(ext);
+        // We visit in reverse, so the earliest nodes (the ones returned) come last: keep a bounded buffer of them
+        // And only create the node container objects when we hit the start (doing timing ETC at that point)
+        if (atomNode instanceof AtomNode) {
+            stageContents.push(new PendingAtom(before, atomNode, after));
+            if (stageContents.size() > StageNodeExt.MAX_CHILD_NODES) {
+                stageContents.removeLast();
+            }
         }
         stageNodeIds.add(atomNode.getId());
     }
@@ -24,9 +24,13 @@
 package com.cloudbees.workflow.rest.external;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.rest.endpoints.FlowNodeAPI;
 import com.cloudbees.workflow.rest.endpoints.flownode.Describe;
+import com.cloudbees.workflow.rest.endpoints.flownode.Log;
 import com.cloudbees.workflow.rest.hal.Link;
 import com.cloudbees.workflow.rest.hal.Links;
+import com.cloudbees.workflow.util.ModelUtil;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import hudson.model.Queue;
 import org.jenkinsci.plugins.workflow.actions.ArgumentsAction;
@@ -37,6 +41,8 @@ import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StatusAndTiming;
 import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.TimingInfo;
 import org.jenkinsci.plugins.workflow.support.actions.PauseAction;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.io.IOException;
@@ -143,14 +149,28 @@ public class FlowNodeExt {
     }
 
     public static final class FlowNodeLinks extends Links {
+        private static final String DESCRIBE_PATH = FlowNodeAPI.URL_BASE + "/describe";
+        private static final String LOG_PATH = FlowNodeAPI.URL_BASE + "/log";
+
         /** Link to rest API for the console */
         private Link log;
         /** Link to the human consumable console page */
         private Link console;
 
+        /** Where the links are put together from, unless they are held, see {@link #derive(RunLinkBase, String)} */
+        private RunLinkBase base;
+        private String nodeId;
+        private boolean hasLog;
+        private String consoleUrlName;
+
+        @Override
+        public Link getSelf() {
+            return (self == null && base != null) ? base.nodeLink(nodeId, DESCRIBE_PATH) : self;
+        }
+
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public Link getLog() {
-            return log;
+            return (log == null && hasLog) ? base.nodeLink(nodeId, LOG_PATH) : log;
         }
 
         public void setLog(Link log) {
@@ -159,12 +179,58 @@ public class FlowNodeExt {
 
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public Link getConsole() {
-            return console;
+            return (console == null && consoleUrlName != null) ? base.nodeLink(nodeId, consoleUrlName) : console;
         }
 
         public void setConsole(Link console) {
             this.console = console;
         }
+
+        /** True if the links are put together when written out rather than held */
+        @Restricted(NoExternalUse.class)
+        @JsonIgnore
+        public boolean isDerived() {
+            return base != null;
+        }
+
+        /**
+         * Put the links together from the run's when they are written out, rather than hold them.
+         * Any links held so far, e.g. read from JSON, are replaced by derived ones.
+         */
+        void derive(@NonNull RunLinkBase base, @NonNull String nodeId) {
+            this.base = base;
+            this.nodeId = nodeId;
+            hasLog = (log != null);
+            if (console != null) {
+                consoleUrlName = console.href.substring(console.href.lastIndexOf('/') + 1);
+            }
+            self = null;
+            log = null;
+            console = null;
+        }
+
+        void addLog(@NonNull FlowNode node) {
+            if (base != null) {
+                hasLog = true;
+            } else {
+                log = Link.newLink(Log.getUrl(node));
+            }
+        }
+
+        void addConsole(@NonNull FlowNode node, @NonNull String urlName) {
+            if (base != null) {
+                consoleUrlName = urlName;
+            } else {
+                console = Link.newLink(ModelUtil.getFullItemUrl(node) + urlName);
+            }
+        }
+    }
+
+    /** Put the links together from the run's when they are written out, see {@link RunExt#deriveLinks} */
+    void deriveLinks(@NonNull RunLinkBase base) {
+        if (_links != null && id != null) {
+            _links.derive(base, id);
+        }
     }
 
     public static FlowNodeExt create(FlowNode node) {
@@ -206,7 +272,12 @@ public class FlowNodeExt {
         setName(node.getDisplayName());
         setExecNode(execNodeName);
         set_links(new FlowNodeLinks());
-        get_links().initSelf(Describe.getUrl(node));
+        RunLinkBase base = RunLinkBase.of(node);
+        if (base != null) {
+            get_links().derive(base, getId());
+        } else {
+            get_links().initSelf(Describe.getUrl(node));
+        }
         setStatus(status);
         if (status != StatusExt.NOT_EXECUTED && error != null) {
             setError(ErrorExt.create(error));
@@ -50,6 +50,7 @@ public class FlowNodeLogExt {
     private boolean hasMore = false;
     private String text;
     private String consoleUrl; // Not a rest endpoint so not including in _links
+    private Long nextStart;
 
     public String getNodeId() {
         return nodeId;
@@ -100,8 +101,28 @@ public class FlowNodeLogExt {
         this.consoleUrl = consoleUrl;
     }
 
-    @SuppressFBWarnings(value = "RV_RETURN_VALUE_IGNORED", justification = "We're not writing to a file")
+    /** Offset to ask for the log from next time, only set when asked for the log from an offset */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getNextStart() {
+        return nextStart;
+    }
+
+    public void setNextStart(Long nextStart) {
+        this.nextStart = nextStart;
+    }
+
     public static FlowNodeLogExt create(FlowNode node) {
+        return create(node, null);
+    }
+
+    /**
+     * Get a node's log.
+     * @param node The node
+     * @param start Offset in the log to return the log from, as returned in {@link #getNextStart()}, or null for
+     *              the tail. At most {@code maxReturnChars} are returned either way: further back than that is skipped.
+     */
+    @SuppressFBWarnings(value = "RV_RETURN_VALUE_IGNORED", justification = "We're not writing to a file")
+    public static FlowNodeLogExt create(FlowNode node, Long start) {
         FlowNodeLogExt logExt = new FlowNodeLogExt();
 
         logExt.setNodeId(node.getId());
@@ -114,20 +135,31 @@ public class FlowNodeLogExt {
             AnnotatedLargeText<? extends FlowNode> logText = logAction.getLogText();
             if (logText != null) {
                 long logLen = logText.length();
+                // Only what was added since the start offset (if any), and never more than the maximum
+                long from = Math.max(logLen - MAX_RETURN_CHARS, 0);
+                if (start != null) {
+                    from = Math.min(Math.max(from, start), logLen);
+                }
 
-                logExt.setLength(Math.min(MAX_RETURN_CHARS, logLen));
-                logExt.setHasMore((logLen > MAX_RETURN_CHARS));
+                logExt.setLength(logLen - from);
+                logExt.setHasMore(from > 0 && (start == null || from > start));
 
-                if (logLen > 0) {
+                long next = from;
+                if (logLen > from) {
                     StringWriter writer = new StringWriter();
                     try {
-                        logText.writeHtmlTo(logLen - logExt.getLength(), writer);
+                        next = logText.writeHtmlTo(from, writer);
                         logExt.setText(writer.toString());
                     } catch (IOException e) {
                         LOGGER.log(Level.SEVERE, "Error serializing log for", e);
                     }
                 }
+                if (start != null) {
+                    logExt.setNextStart(next);
+                }
             }
+        } else if (start != null) {
+            logExt.setNextStart(start);
         }
 
         return logExt;
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.flownode.JobChangeTracker;
+import com.cloudbees.workflow.rest.endpoints.JobAPI;
+import com.cloudbees.workflow.rest.hal.Links;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+/**
+ * Version of a job's runs, for clients to poll instead of the runs themselves.
+ * The runs only need to be fetched again when the version changes.
+ */
+public class JobChangesExt {
+
+    private JobChangesLinks _links;
+    private String version;
+
+    public JobChangesLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(JobChangesLinks _links) {
+        this._links = _links;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public static final class JobChangesLinks extends Links {
+    }
+
+    public static JobChangesExt create(WorkflowJob job) {
+        JobChangesExt changes = new JobChangesExt();
+        changes.set_links((JobChangesLinks) new JobChangesLinks().initSelf(JobAPI.getChangesUrl(job)));
+        changes.setVersion(JobChangeTracker.getVersion(job));
+        return changes;
+    }
+}
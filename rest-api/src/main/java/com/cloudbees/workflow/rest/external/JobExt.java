@@ -23,6 +23,7 @@
  */
 package com.cloudbees.workflow.rest.external;
 
+import com.cloudbees.workflow.flownode.ParallelRuns;
 import com.cloudbees.workflow.rest.endpoints.JobAPI;
 import com.cloudbees.workflow.rest.hal.Link;
 import com.cloudbees.workflow.rest.hal.Links;
@@ -40,7 +41,7 @@ import java.util.List;
 public class JobExt {
 
     /**
-     * Name of the system property to set the max number of runs per page. Pagination not yet supported.
+     * Name of the system property to set the max number of runs per page, when the client does not ask for a page.
      */
     public static final String MAX_RUNS_PER_JOB_PROPERTY_NAME = JobExt.class.getName()+".maxRunsPerJob";
 
@@ -129,6 +130,29 @@ public class JobExt {
     }
 
     public static List<RunExt> create(List<WorkflowRun> runs, String since, boolean fullStages) {
+        // Clients wanting more runs than this should ask for them a page at a time, see RunsPageExt
+        return create(runs, since, fullStages, Integer.getInteger(MAX_RUNS_PER_JOB_PROPERTY_NAME, MAX_RUNS_PER_JOB_DEFAULT));
+    }
+
+    static List<RunExt> create(Iterable<WorkflowRun> runs, String since, boolean fullStages, int maxRuns) {
+        // Runs that are not cached are computed at the same time
+        List<RunExt> runsExt = ParallelRuns.create(selectRuns(runs, since, maxRuns));
+        if (!fullStages) {
+            runsExt.replaceAll(RunExt::createWrapper);
+        }
+        return runsExt;
+    }
+
+    /**
+     * Get the runs {@link #create(List, String, boolean)} returns, without creating them.
+     * @param runs All the runs, newest first
+     * @param since The run/build name at which to stop (inclusive), or null/empty for no stop
+     */
+    public static List<WorkflowRun> selectRuns(Iterable<WorkflowRun> runs, String since) {
+        return selectRuns(runs, since, Integer.getInteger(MAX_RUNS_PER_JOB_PROPERTY_NAME, MAX_RUNS_PER_JOB_DEFAULT));
+    }
+
+    private static List<WorkflowRun> selectRuns(Iterable<WorkflowRun> runs, String since, int maxRuns) {
         if (since != null) {
             since = since.trim();
             if (since.length() == 0) {
@@ -136,21 +160,16 @@ public class JobExt {
             }
         }
 
-        int maxRunsPerJob = Integer.getInteger(MAX_RUNS_PER_JOB_PROPERTY_NAME, MAX_RUNS_PER_JOB_DEFAULT);
-
-        List<RunExt> runsExt = new ArrayList<RunExt>();
+        List<WorkflowRun> selected = new ArrayList<WorkflowRun>();
         for (WorkflowRun run : runs) {
-            if (runsExt.size() >= maxRunsPerJob) {
-                // We don't yet support pagination, so no point
-                // returning a huge list of runs.
+            if (selected.size() >= maxRuns) {
                 break;
             }
-            RunExt runExt = (fullStages) ? RunExt.create(run) : RunExt.create(run).createWrapper();
-            runsExt.add(runExt);
-            if (since != null && runExt.getName().equals(since)) {
+            selected.add(run);
+            if (since != null && run.getDisplayName().equals(since)) {
                 break;
             }
         }
-        return runsExt;
+        return selected;
     }
 }
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StageChunkFinder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Incrementally maintained stages for a running build.
+ * <p>
+ * Once a top-level stage has ended and the flow has moved past it, nothing inside it can change any more. A
+ * {@link GraphListener} records the latest such stage as a boundary, and the stages up to it are computed once and
+ * kept. Each request then only has to scan the graph after the boundary, that is the stage(s) currently running,
+ * rather than the whole flow graph of a build that may be hours and thousands of nodes in.
+ */
+final class LiveRunStages {
+
+    private static final Logger LOGGER = Logger.getLogger(LiveRunStages.class.getName());
+
+    private static final boolean DISABLED = Boolean.getBoolean(LiveRunStages.class.getName() + ".disabled");
+
+    /** Weak keys, so state goes away with the execution, compared by identity */
+    private static final Cache<FlowExecution, LiveRunStages> LIVE_RUNS = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** End of a completed top-level stage, and the node which followed it */
+    private static final class Boundary {
+        final String endId;
+        final String afterId;
+
+        Boundary(String endId, String afterId) {
+            this.endId = endId;
+            this.afterId = afterId;
+        }
+    }
+
+    /** Latest boundary seen by the listener */
+    private volatile Boundary latest;
+
+    /** Boundary up to which {@link #frozenStages} have been computed */
+    private Boundary frozen;
+
+    private final List<StageNodeExt> frozenStages = new ArrayList<>();
+
+    @NonNull
+    private static LiveRunStages forExecution(@NonNull FlowExecution execution) {
+        try {
+            return LIVE_RUNS.get(execution, LiveRunStages::new);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException(ee);  // Constructor cannot throw
+        }
+    }
+
+    /**
+     * Stages of the running build, unsorted.
+     * Completed stages up to the latest boundary are shared between calls and must not be modified.
+     */
+    @NonNull
+    static List<StageNodeExt> getStages(@NonNull WorkflowRun run, @NonNull FlowExecution execution) {
+        if (DISABLED) {
+            return scanStages(run, execution);
+        }
+        return forExecution(execution).computeStages(run, execution);
+    }
+
+    private synchronized List<StageNodeExt> computeStages(@NonNull WorkflowRun run, @NonNull FlowExecution execution) {
+        Boundary target = latest;
+        if (target != null && target != frozen) {
+            extendFrozenStages(run, execution, target);
+        }
+
+        // Only the part of the graph after the boundary can still change
+        FlowNode frozenEnd = (frozen == null) ? null : getNode(execution, frozen.endId);
+        if (frozen != null && frozenEnd == null) {
+            reset();
+        }
+        ChunkVisitor visitor = new ChunkVisitor(run);
+        ForkScanner.visitSimpleChunks(execution.getCurrentHeads(),
+                (frozenEnd == null) ? Collections.<FlowNode>emptyList() : Collections.singletonList(frozenEnd),
+                visitor, new StageChunkFinder());
+
+        List<StageNodeExt> stages = new ArrayList<>(frozenStages.size() + visitor.stages.size());
+        stages.addAll(frozenStages);
+        stages.addAll(visitor.stages);
+        return stages;
+    }
+
+    /** Scans the whole flow graph for stages, unsorted */
+    @NonNull
+    static List<StageNodeExt> scanStages(@NonNull WorkflowRun run, @NonNull FlowExecution execution) {
+        ChunkVisitor visitor = new ChunkVisitor(run);
+        ForkScanner.visitSimpleChunks(execution.getCurrentHeads(), visitor, new StageChunkFinder());
+        return new ArrayList<>(visitor.stages);
+    }
+
+    /** Computes the stages completed between the previously frozen boundary and the target one */
+    private void extendFrozenStages(@NonNull WorkflowRun run, @NonNull FlowExecution execution, @NonNull Boundary target) {
+        FlowNode after = getNode(execution, target.afterId);
+        FlowNode previousEnd = (frozen == null) ? null : getNode(execution, frozen.endId);
+        if (after == null || (frozen != null && previousEnd == null)) {
+            reset();
+            return;
+        }
+
+        ChunkVisitor visitor = new ChunkVisitor(run);
+        visitor.isLastChunk = false;  // Every stage in here is complete, the last chunk is still to come
+        ForkScanner.visitSimpleChunks(Collections.singletonList(after),
+                (previousEnd == null) ? Collections.<FlowNode>emptyList() : Collections.singletonList(previousEnd),
+                visitor, new StageChunkFinder());
+        frozenStages.addAll(visitor.stages);
+        frozen = target;
+    }
+
+    /** Fall back to scanning everything, should the graph not be what we expect */
+    private void reset() {
+        frozen = null;
+        frozenStages.clear();
+    }
+
+    @CheckForNull
+    private static FlowNode getNode(@NonNull FlowExecution execution, @NonNull String id) {
+        try {
+            return execution.getNode(id);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.FINE, "Unable to load flow node " + id, ioe);
+            return null;
+        }
+    }
+
+    /** A stage body that is not nested inside another stage or a parallel branch */
+    static boolean isTopLevelStageEnd(@NonNull FlowNode node) {
+        if (!(node instanceof BlockEndNode)) {
+            return false;
+        }
+        BlockStartNode start = ((BlockEndNode<?>) node).getStartNode();
+        if (!StageNodeExt.isStageNode(start)) {
+            return false;
+        }
+        for (BlockStartNode enclosing : start.iterateEnclosingBlocks()) {
+            if (enclosing.getAction(LabelAction.class) != null || enclosing.getAction(ThreadNameAction.class) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Watches for the flow moving past top-level stages */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class StageBoundaryListener implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            if (DISABLED) {
+                return;
+            }
+            if (node instanceof FlowEndNode) {
+                LIVE_RUNS.invalidate(node.getExecution());
+                return;
+            }
+            List<FlowNode> parents = node.getParents();
+            if (parents.size() != 1 || !isTopLevelStageEnd(parents.get(0))) {
+                return;
+            }
+            forExecution(node.getExecution()).latest = new Boundary(parents.get(0).getId(), node.getId());
+        }
+    }
+}
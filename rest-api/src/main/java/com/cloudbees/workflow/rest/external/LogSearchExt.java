@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.rest.endpoints.RunAPI;
+import com.cloudbees.workflow.rest.hal.Links;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.console.AnnotatedLargeText;
+import hudson.console.ConsoleNote;
+import org.jenkinsci.plugins.workflow.actions.LogAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lines of a run's step logs containing some text.
+ * <p>
+ * The logs of the run's steps, in stages or not, are scanned in the order they ran, line by line straight from the
+ * stored log bytes, without rendering them. Only the start of very long lines is searched. The scan stops once
+ * {@code maxMatches} lines are found or after {@code timeBudgetMillis}, in which case {@link #isComplete()} is false.
+ * </p>
+ */
+public class LogSearchExt {
+
+    private static final Logger LOGGER = Logger.getLogger(LogSearchExt.class.getName());
+
+    private static final int MAX_MATCHES = Integer.getInteger(LogSearchExt.class.getName()+".maxMatches", 100);
+    private static final long TIME_BUDGET_MILLIS = Long.getLong(LogSearchExt.class.getName()+".timeBudgetMillis", 5000);
+    private static final int MAX_LINE_BYTES = Integer.getInteger(LogSearchExt.class.getName()+".maxLineBytes", 8 * 1024);
+
+    // Longer matching lines are cut down to this much around the match
+    static final int MAX_SNIPPET_CHARS = 200;
+
+    private LogSearchLinks _links;
+    private String query;
+    private boolean complete = true;
+    private List<Match> matches = new ArrayList<>();
+
+    public LogSearchLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(LogSearchLinks _links) {
+        this._links = _links;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    /** False if the search stopped before all the logs were scanned, so there may be more matches */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public List<Match> getMatches() {
+        return matches;
+    }
+
+    public void setMatches(List<Match> matches) {
+        this.matches = matches;
+    }
+
+    public static final class LogSearchLinks extends Links {
+    }
+
+    /** A matching log line */
+    public static class Match {
+        private String nodeId;
+        private String stageId;
+        private int line;
+        private String text;
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        /** The stage the step ran in, null for steps outside any stage */
+        public String getStageId() {
+            return stageId;
+        }
+
+        public void setStageId(String stageId) {
+            this.stageId = stageId;
+        }
+
+        /** Line number in the step's log, from 1 */
+        public int getLine() {
+            return line;
+        }
+
+        public void setLine(int line) {
+            this.line = line;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Search a run's step logs
+     * @param run The run
+     * @param query Text to search for, case sensitive
+     */
+    public static LogSearchExt create(@NonNull WorkflowRun run, @NonNull String query) {
+        LogSearchExt search = new LogSearchExt();
+        search.set_links((LogSearchLinks) new LogSearchLinks().initSelf(RunAPI.getLogSearchUrl(run, query)));
+        search.setQuery(query);
+
+        FlowExecution execution = run.getExecution();
+        if (execution == null) {
+            return search;
+        }
+
+        // Steps outside any stage are searched too, between the stages they ran between
+        Map<String, String> stageIds = new HashMap<>();
+        List<StageNodeExt> stages = RunExt.create(run).getStages();
+        if (stages != null) {
+            for (StageNodeExt stage : stages) {
+                for (String nodeId : stage.getAllChildNodeIds()) {
+                    stageIds.put(nodeId, stage.getId());
+                }
+            }
+        }
+        List<FlowNode> steps = new ArrayList<>(new DepthFirstScanner().filteredNodes(execution.getCurrentHeads(),
+                node -> node.getAction(LogAction.class) != null));
+        steps.sort(Comparator.comparing(FlowNode::getId, LogSearchExt::compareIds));
+
+        LineSearcher searcher = new LineSearcher(search, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIME_BUDGET_MILLIS));
+        for (FlowNode node : steps) {
+            try {
+                AnnotatedLargeText<? extends FlowNode> logText = node.getAction(LogAction.class).getLogText();
+                if (logText != null) {
+                    searcher.search(node.getId(), stageIds.get(node.getId()), logText);
+                }
+            } catch (SearchStopped e) {
+                search.setComplete(false);
+                return search;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to search the log of node " + node.getId() + " in " + run, e);
+            }
+        }
+        return search;
+    }
+
+    /** Orders node IDs as they were created: numerically, as they usually are numbers */
+    private static int compareIds(String id1, String id2) {
+        try {
+            return Long.compare(Long.parseLong(id1), Long.parseLong(id2));
+        } catch (NumberFormatException e) {
+            return id1.compareTo(id2);
+        }
+    }
+
+    /** Collects the matching lines of the logs written to it, a line at a time */
+    private static final class LineSearcher extends OutputStream {
+        private static final byte ESC = 0x1b;  // Starts console notes
+
+        private final LogSearchExt search;
+        private final byte[] query;
+        private final long deadline;
+
+        // Only the start of longer lines is kept
+        private final byte[] line = new byte[MAX_LINE_BYTES];
+        private int lineLength;
+        private int lineNumber;
+        private String nodeId;
+        private String stageId;
+
+        LineSearcher(LogSearchExt search, long deadline) {
+            this.search = search;
+            this.query = search.getQuery().getBytes(StandardCharsets.UTF_8);
+            this.deadline = deadline;
+        }
+
+        void search(String nodeId, String stageId, AnnotatedLargeText<?> logText) throws IOException {
+            checkDeadline();
+            this.nodeId = nodeId;
+            this.stageId = stageId;
+            lineLength = 0;
+            lineNumber = 0;
+            logText.writeRawLogTo(0, this);
+            if (lineLength > 0) {
+                endLine();  // No newline at the end
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    endLine();
+                } else if (lineLength < line.length) {
+                    line[lineLength++] = b[i];
+                }
+            }
+            checkDeadline();
+        }
+
+        private void endLine() throws SearchStopped {
+            lineNumber++;
+            int length = lineLength;
+            lineLength = 0;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+
+            String text;
+            if (indexOf(line, length, ESC) >= 0) {
+                // The notes could hide or split the text, so look for it in what is displayed
+                text = ConsoleNote.removeNotes(new String(line, 0, length, StandardCharsets.UTF_8));
+                if (!text.contains(search.getQuery())) {
+                    return;
+                }
+            } else if (indexOf(line, length, query) >= 0) {
+                text = new String(line, 0, length, StandardCharsets.UTF_8);
+            } else {
+                return;
+            }
+
+            Match match = new Match();
+            match.setNodeId(nodeId);
+            match.setStageId(stageId);
+            match.setLine(lineNumber);
+            match.setText(snippet(text, search.getQuery()));
+            search.getMatches().add(match);
+            if (search.getMatches().size() >= MAX_MATCHES) {
+                throw new SearchStopped();
+            }
+        }
+
+        private void checkDeadline() throws SearchStopped {
+            if (System.nanoTime() - deadline > 0) {
+                throw new SearchStopped();
+            }
+        }
+
+        private static int indexOf(byte[] bytes, int length, byte b) {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int indexOf(byte[] bytes, int length, byte[] target) {
+            outer:
+            for (int i = 0; i <= length - target.length; i++) {
+                for (int j = 0; j < target.length; j++) {
+                    if (bytes[i + j] != target[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+
+    static String snippet(String text, String query) {
+        text = text.trim();
+        if (text.length() <= MAX_SNIPPET_CHARS) {
+            return text;
+        }
+        int at = Math.max(text.indexOf(query), 0);
+        int start = Math.max(0, Math.min(at - (MAX_SNIPPET_CHARS - query.length()) / 2, text.length() - MAX_SNIPPET_CHARS));
+        return text.substring(start, start + MAX_SNIPPET_CHARS);
+    }
+
+    /** Thrown to stop scanning the logs once the search is over */
+    private static final class SearchStopped extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
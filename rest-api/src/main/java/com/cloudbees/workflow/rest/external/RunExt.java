@@ -24,31 +24,43 @@
 package com.cloudbees.workflow.rest.external;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.InFlightRuns;
 import com.cloudbees.workflow.rest.endpoints.RunAPI;
 import com.cloudbees.workflow.rest.hal.Link;
 import com.cloudbees.workflow.rest.hal.Links;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.cloudbees.workflow.util.PreSerializedJson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.model.Result;
 import jenkins.model.StandardArtifactManager;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
-import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
-import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StageChunkFinder;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputAction;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * External API response object for pipeline run
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
-public class RunExt {
+public class RunExt implements PreSerializedJson {
+
+    private static final Logger LOGGER = Logger.getLogger(RunExt.class.getName());
 
     private RunLinks _links;
     private String id;
@@ -60,6 +72,19 @@ public class RunExt {
     private long queueDurationMillis;
     private long pauseDurationMillis;
     private List<StageNodeExt> stages;
+
+    /** Root URLs the JSON of a frozen run is kept for at the same time, as a controller may be reached by several */
+    private static final int MAX_FROZEN_URLS = 2;
+
+    /**
+     * Set once the run is complete and cached, see {@link #freeze(String)}: the key it is cached at, the JSON for this
+     * object once asked for, and its wrapper
+     */
+    private transient volatile boolean frozen;
+    private transient volatile String cacheKey;
+    private transient volatile FrozenJson json;
+    private transient volatile RunExt wrapper;
+
     public RunLinks get_links() {
         return _links;
     }
@@ -141,14 +166,31 @@ public class RunExt {
     }
 
     public static final class RunLinks extends Links {
+        private static final String DESCRIBE_PATH = RunAPI.URL_BASE + "/describe";
+        private static final String CHANGESETS_PATH = RunAPI.URL_BASE + "/changesets";
+        private static final String PENDING_INPUT_ACTIONS_PATH = RunAPI.URL_BASE + "/pendingInputActions";
+        private static final String NEXT_PENDING_INPUT_ACTION_PATH = RunAPI.URL_BASE + "/nextPendingInputAction";
+        private static final String ARTIFACTS_PATH = RunAPI.URL_BASE + "/artifacts";
+
         private Link changesets;
         private Link pendingInputActions;
         private Link nextPendingInputAction;
         private Link artifacts;
 
+        /** Where the links are put together from, unless they are held, see {@link #derive(RunLinkBase)} */
+        private RunLinkBase base;
+        private boolean hasChangesets;
+        private boolean hasPendingInput;
+        private boolean hasArtifacts;
+
+        @Override
+        public Link getSelf() {
+            return (self == null && base != null) ? base.link(DESCRIBE_PATH) : self;
+        }
+
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public Link getChangesets() {
-            return changesets;
+            return (changesets == null && hasChangesets) ? base.link(CHANGESETS_PATH) : changesets;
         }
 
         public void setChangesets(Link changesets) {
@@ -157,7 +199,7 @@ public class RunExt {
 
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public Link getPendingInputActions() {
-            return pendingInputActions;
+            return (pendingInputActions == null && hasPendingInput) ? base.link(PENDING_INPUT_ACTIONS_PATH) : pendingInputActions;
         }
 
         public void setPendingInputActions(Link pendingInputActions) {
@@ -166,7 +208,7 @@ public class RunExt {
 
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public Link getNextPendingInputAction() {
-            return nextPendingInputAction;
+            return (nextPendingInputAction == null && hasPendingInput) ? base.link(NEXT_PENDING_INPUT_ACTION_PATH) : nextPendingInputAction;
         }
 
         public void setNextPendingInputAction(Link nextPendingInputAction) {
@@ -174,13 +216,36 @@ public class RunExt {
         }
 
         public Link getArtifacts() {
-            return artifacts;
+            return (artifacts == null && hasArtifacts) ? base.link(ARTIFACTS_PATH) : artifacts;
         }
 
         @JsonInclude(JsonInclude.Include.NON_NULL)
         public void setArtifacts(Link artifacts) {
             this.artifacts = artifacts;
         }
+
+        /** True if the links are put together when written out rather than held */
+        @Restricted(NoExternalUse.class)
+        @JsonIgnore
+        public boolean isDerived() {
+            return base != null;
+        }
+
+        /**
+         * Put the links together from the run's when they are written out, rather than hold them.
+         * Any links held so far, e.g. read from JSON, are replaced by derived ones.
+         */
+        void derive(@NonNull RunLinkBase base) {
+            this.base = base;
+            hasChangesets = (changesets != null);
+            hasPendingInput = (pendingInputActions != null);
+            hasArtifacts = (artifacts != null);
+            self = null;
+            changesets = null;
+            pendingInputActions = null;
+            nextPendingInputAction = null;
+            artifacts = null;
+        }
     }
 
     /** Computes timings after the stages have been set up
@@ -230,7 +295,7 @@ public class RunExt {
 
         final RunExt runExt = new RunExt();
         runExt.set_links(new RunLinks());
-        runExt.get_links().initSelf(RunAPI.getDescribeUrl(run));
+        runExt.get_links().derive(RunLinkBase.of(run));
 
         runExt.setId(run.getId());
         runExt.setName(run.getDisplayName());
@@ -240,11 +305,10 @@ public class RunExt {
 
         if (execution != null) {
             if (ChangeSetExt.hasChanges(run)) {
-                runExt.get_links().setChangesets(Link.newLink(RunAPI.getChangeSetsUrl(run)));
+                runExt.get_links().hasChangesets = true;
             }
             if (isPendingInput(run)) {
-                runExt.get_links().setPendingInputActions(Link.newLink(RunAPI.getPendingInputActionsUrl(run)));
-                runExt.get_links().setNextPendingInputAction(Link.newLink(RunAPI.getNextPendingInputActionUrl(run)));
+                runExt.get_links().hasPendingInput = true;
             }
             boolean mightHaveArtifacts;
             if (run.getArtifactManager() instanceof StandardArtifactManager) {
@@ -254,7 +318,7 @@ public class RunExt {
                 mightHaveArtifacts = true;
             }
             if (mightHaveArtifacts) {
-                runExt.get_links().setArtifacts(Link.newLink(RunAPI.getArtifactsUrl(run)));
+                runExt.get_links().hasArtifacts = true;
             }
         }
         return runExt;
@@ -264,7 +328,117 @@ public class RunExt {
      *  Use case: returning a minimal view of the run, while using a cached, fully-realized version
      */
     public RunExt createWrapper() {
-        return new ChildHidingWrapper(this);
+        RunExt frozenWrapper = wrapper;
+        return (frozenWrapper != null) ? frozenWrapper : new ChildHidingWrapper(this);
+    }
+
+    /**
+     * Marks this as the final image of a completed run, so it and its wrapper are serialized once for each root URL
+     * they are asked for at, when first asked for, and afterwards served from those bytes.
+     * The run must not be modified after this.
+     * @param cacheKey Key of the run in the run cache, to weigh it again as JSON is held for it
+     */
+    @Restricted(NoExternalUse.class)
+    public void freeze(@NonNull String cacheKey) {
+        if (frozen) {
+            return;
+        }
+        RunExt frozenWrapper = new ChildHidingWrapper(this);
+        frozenWrapper.cacheKey = cacheKey;
+        frozenWrapper.frozen = true;
+        this.wrapper = frozenWrapper;
+        this.cacheKey = cacheKey;
+        this.frozen = true;
+    }
+
+    @Override
+    @CheckForNull
+    @Restricted(NoExternalUse.class)
+    public byte[] getJsonBytes(@NonNull ObjectMapper mapper) {
+        if (mapper != JSONReadWrite.jsonMapper || !frozen) {
+            return null;
+        }
+        // The JSON holds the links in full, so it is kept by the root URL and where the run is
+        String runUrl = getLinksRunUrl();
+        FrozenJson held = json;
+        for (FrozenJson frozenJson = held; frozenJson != null; frozenJson = frozenJson.older) {
+            if (frozenJson.runUrl.equals(runUrl)) {
+                return frozenJson.bytes;
+            }
+        }
+        try {
+            byte[] bytes = mapper.writeValueAsBytes(this);
+            json = new FrozenJson(runUrl, bytes, held, MAX_FROZEN_URLS - 1);
+            FlowNodeUtil.reweighCachedRun(cacheKey);
+            return bytes;
+        } catch (JsonProcessingException e) {
+            LOGGER.log(Level.FINE, "Unable to serialize run " + getName() + ", it will be serialized per request", e);
+            return null;
+        }
+    }
+
+    /** URL the links are put together from, or empty if they are held */
+    @NonNull
+    private String getLinksRunUrl() {
+        RunLinks links = get_links();
+        return (links != null && links.base != null) ? links.base.getUrl() : "";
+    }
+
+    /** JSON of a frozen run as written at one run URL, followed by the JSON written at others before it */
+    private static final class FrozenJson {
+        private final String runUrl;
+        private final byte[] bytes;
+        private final FrozenJson older;
+
+        FrozenJson(@NonNull String runUrl, @NonNull byte[] bytes, @CheckForNull FrozenJson older, int keepOlder) {
+            this.runUrl = runUrl;
+            this.bytes = bytes;
+            this.older = (older != null && keepOlder > 0)
+                    ? new FrozenJson(older.runUrl, older.bytes, older.older, keepOlder - 1) : null;
+        }
+
+        long size() {
+            return bytes.length + ((older != null) ? older.size() : 0);
+        }
+    }
+
+    /** True if the links of the run are put together when written out, so they follow it when its job moves */
+    @Restricted(NoExternalUse.class)
+    public boolean hasDerivedLinks() {
+        RunLinks links = get_links();
+        return links != null && links.isDerived();
+    }
+
+    /**
+     * Put all the links of the run and its stages together from where the run is now when they are written out,
+     * rather than hold the ones they were read with.
+     */
+    @Restricted(NoExternalUse.class)
+    public void deriveLinks(@NonNull WorkflowRun run) {
+        RunLinkBase base = RunLinkBase.of(run);
+        if (_links != null) {
+            _links.derive(base);
+        }
+        if (stages != null) {
+            for (StageNodeExt stage : stages) {
+                stage.deriveLinks(base);
+                List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+                if (children != null) {
+                    for (AtomFlowNodeExt child : children) {
+                        child.deriveLinks(base);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Size of the JSON held for a frozen run and its wrapper, in bytes */
+    @Restricted(NoExternalUse.class)
+    public static long getFrozenJsonSize(@NonNull RunExt run) {
+        FrozenJson runJson = run.json;
+        RunExt frozenWrapper = run.wrapper;
+        FrozenJson wrapperJson = (frozenWrapper != null) ? frozenWrapper.json : null;
+        return ((runJson != null) ? runJson.size() : 0) + ((wrapperJson != null) ? wrapperJson.size() : 0);
     }
 
     protected static class ChildHidingWrapper extends RunExt {
@@ -307,21 +481,31 @@ public class RunExt {
                 return myRun;
             }
         }
-        // Compute the entire flow
-        RunExt myRun = createNew(run);
-        if (isNotRunning) {
-            FlowNodeUtil.cacheRun(run, myRun);
-        }
-        return myRun;
+        // Compute the entire flow, once, however many viewers ask for it at the same time
+        return InFlightRuns.compute(run.getExternalizableId(), () -> {
+            if (isNotRunning) {
+                // Another caller may have just finished computing and caching it
+                RunExt cachedRun = FlowNodeUtil.getCachedRun(run);
+                if (cachedRun != null) {
+                    return cachedRun;
+                }
+            }
+            RunExt myRun = createNew(run);
+            if (isNotRunning) {
+                FlowNodeUtil.cacheRun(run, myRun);
+            }
+            return myRun;
+        });
     }
 
     public static RunExt createNew(WorkflowRun run) {
         final RunExt runExt = createMinimal(run);
         FlowExecution execution = run.getExecution();
         if (execution != null) {
-            ChunkVisitor visitor = new ChunkVisitor(run);
-            ForkScanner.visitSimpleChunks(execution.getCurrentHeads(), visitor, new StageChunkFinder());
-            final List<StageNodeExt> visitorStages = new ArrayList<>(visitor.stages);
+            // Running builds reuse the stages they have already completed, rather than rescanning on every poll
+            final List<StageNodeExt> visitorStages = FlowNodeUtil.isNotPartOfRunningBuild(execution)
+                    ? LiveRunStages.scanStages(run, execution)
+                    : LiveRunStages.getStages(run, execution);
             visitorStages.sort(RunExt::compareStageNodeExt);
             runExt.setStages(visitorStages);
         }
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.rest.hal.Link;
+import com.cloudbees.workflow.util.ModelUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.listeners.ItemListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the links of a run and its nodes start, shared by all of their model objects so each one only holds what is
+ * its own, such as a node ID. The links are put together as the objects are written out.
+ * <p>
+ * The URL of the run is looked up again from its job whenever any item has moved since, so the links of a cached run
+ * follow the job when it is renamed or moved into another folder.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class RunLinkBase {
+
+    /** Weak keys, so a base goes away with the run, compared by identity */
+    private static final Cache<WorkflowRun, RunLinkBase> BASES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** Bumped whenever an item moves, which may change the URL of any run within it */
+    private static final AtomicLong MOVES = new AtomicLong();
+
+    private final WorkflowJob job;
+    private final String runId;
+
+    /** URL of the run relative to the root, as of a number of moves */
+    private volatile RunPath path;
+
+    private static final class RunPath {
+        private final long moves;
+        private final String url;
+
+        RunPath(long moves, String url) {
+            this.moves = moves;
+            this.url = url;
+        }
+    }
+
+    private RunLinkBase(@NonNull WorkflowRun run) {
+        this.job = run.getParent();
+        this.runId = run.getId();
+    }
+
+    /** Get the base shared by the links of a run */
+    @NonNull
+    public static RunLinkBase of(@NonNull WorkflowRun run) {
+        try {
+            return BASES.get(run, () -> new RunLinkBase(run));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unexpected error creating links", e);
+        }
+    }
+
+    /** Get the base shared by the links of the run a node belongs to, or null if it does not belong to a run */
+    @CheckForNull
+    public static RunLinkBase of(@NonNull FlowNode node) {
+        try {
+            Queue.Executable exec = node.getExecution().getOwner().getExecutable();
+            return (exec instanceof WorkflowRun) ? of((WorkflowRun) exec) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** URL of the run relative to the root, as in {@link WorkflowRun#getUrl()} */
+    @NonNull
+    String getPath() {
+        long moves = MOVES.get();
+        RunPath current = path;
+        if (current == null || current.moves != moves) {
+            current = new RunPath(moves, job.getUrl() + runId + '/');
+            path = current;
+        }
+        return current.url;
+    }
+
+    /** Full URL of the run, for the current request */
+    @NonNull
+    String getUrl() {
+        return ModelUtil.getFullItemUrl(getPath());
+    }
+
+    /**
+     * Link within the run
+     * @param path Path relative to the run, e.g. {@code wfapi/describe}
+     */
+    @NonNull
+    Link link(@NonNull String path) {
+        return Link.newLink(getUrl() + path);
+    }
+
+    /**
+     * Link within a node of the run
+     * @param nodeId ID of the node
+     * @param path Path relative to the node, e.g. {@code wfapi/describe}
+     */
+    @NonNull
+    Link nodeLink(@NonNull String nodeId, @NonNull String path) {
+        // See FlowNode#getUrl
+        return Link.newLink(getUrl() + "execution/node/" + nodeId + '/' + path);
+    }
+
+    /** Items moving, so the URLs of runs are looked up again */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class MoveListener extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            MOVES.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.flownode.JobChangeTracker;
+import com.cloudbees.workflow.rest.endpoints.JobAPI;
+import com.cloudbees.workflow.rest.hal.Links;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The runs of a job that changed since a version of it (see {@link JobChangesExt}), plus the runs in progress.
+ * <p>
+ * If the changes since the version are not known any more, e.g. after a restart, {@code reset} is set and
+ * {@code runs} has all the runs, as returned without {@code sinceVersion}: the client has to replace what it has.
+ * </p>
+ */
+public class RunsDeltaExt {
+
+    private RunsDeltaLinks _links;
+    private String version;
+    private boolean reset;
+    private List<RunExt> runs;
+    private List<String> deleted;
+
+    public RunsDeltaLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(RunsDeltaLinks _links) {
+        this._links = _links;
+    }
+
+    /** The version of the job these are the changes up to, to send as {@code sinceVersion} next time */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /** True if the runs are all the runs, replacing rather than updating the client's */
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    /** The changed runs and the runs in progress, newest first */
+    public List<RunExt> getRuns() {
+        return runs;
+    }
+
+    public void setRuns(List<RunExt> runs) {
+        this.runs = runs;
+    }
+
+    /** IDs of the runs deleted since the version */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(List<String> deleted) {
+        this.deleted = deleted;
+    }
+
+    public static final class RunsDeltaLinks extends Links {
+    }
+
+    /**
+     * Get the runs changed since a version.
+     * @param job The job
+     * @param sinceVersion The version the client has, or empty if it has none
+     * @param fullStages Return the stageNodes within each stage
+     */
+    public static RunsDeltaExt create(WorkflowJob job, String sinceVersion, boolean fullStages) {
+        RunsDeltaExt delta = new RunsDeltaExt();
+        delta.set_links((RunsDeltaLinks) new RunsDeltaLinks().initSelf(JobAPI.getRunsDeltaUrl(job, sinceVersion));
+        // Read before looking at the runs, so anything changing meanwhile is returned again next time
+        delta.setVersion(JobChangeTracker.getVersion(job));
+
+        JobChangeTracker.Changes changes = JobChangeTracker.getChangesSince(job, sinceVersion);
+        List<WorkflowRun> runs = JobExt.selectRuns(job.getBuilds(), null);
+        if (changes == null) {
+            delta.setReset(true);
+            delta.setRuns(JobExt.create(runs, null, fullStages, runs.size()));
+            delta.setDeleted(Collections.<String>emptyList());
+            return delta;
+        }
+
+        // Only the runs a client without a version would have been given can have changed for it
+        List<WorkflowRun> changedRuns = new ArrayList<>();
+        for (WorkflowRun run : runs) {
+            if (run.isBuilding() || changes.getChanged().contains(run.getNumber())) {
+                changedRuns.add(run);
+            }
+        }
+        delta.setRuns(JobExt.create(changedRuns, null, fullStages, changedRuns.size()));
+        List<String> deleted = new ArrayList<>(changes.getDeleted().size());
+        for (Integer number : changes.getDeleted()) {
+            deleted.add(number.toString());
+        }
+        delta.setDeleted(deleted);
+        return delta;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.rest.endpoints.JobAPI;
+import com.cloudbees.workflow.rest.hal.Link;
+import com.cloudbees.workflow.rest.hal.Links;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a job's runs, newest first, with links to the neighbouring pages.
+ * <p>
+ * Runs are looked up by build number, so builds outside the page are never loaded.
+ * </p>
+ */
+public class RunsPageExt {
+
+    /**
+     * Name of the system property to set the largest page of runs a client may ask for.
+     */
+    public static final String MAX_RUNS_PER_PAGE_PROPERTY_NAME = RunsPageExt.class.getName()+".maxRunsPerPage";
+
+    /**
+     * Default value of the largest page of runs.
+     */
+    public static final int MAX_RUNS_PER_PAGE_DEFAULT = 100;
+
+    private RunsPageLinks _links;
+    private List<RunExt> runs;
+
+    public RunsPageLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(RunsPageLinks _links) {
+        this._links = _links;
+    }
+
+    public List<RunExt> getRuns() {
+        return runs;
+    }
+
+    public void setRuns(List<RunExt> runs) {
+        this.runs = runs;
+    }
+
+    public static final class RunsPageLinks extends Links {
+        private Link next;
+        private Link prev;
+
+        /** Older runs */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Link getNext() {
+            return next;
+        }
+
+        public void setNext(Link next) {
+            this.next = next;
+        }
+
+        /** Newer runs */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Link getPrev() {
+            return prev;
+        }
+
+        public void setPrev(Link prev) {
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * Get a page of runs.
+     * @param job The job
+     * @param limit Maximum number of runs to return, or 0 for the default ({@link JobExt#MAX_RUNS_PER_JOB_PROPERTY_NAME})
+     * @param before Only return runs with a lower build number than this, or 0
+     * @param after Only return runs with a higher build number than this, or 0 (ignored if before is set)
+     * @param fullStages Return the stageNodes within each stage
+     * @return The page of runs
+     */
+    public static RunsPageExt create(WorkflowJob job, int limit, int before, int after, boolean fullStages) {
+        return create(job, getPageRuns(job, limit, before, after), limit, before, after, fullStages);
+    }
+
+    /**
+     * Get a page of runs, from the runs already looked up for it.
+     * @param pageRuns The runs on the page, as returned by {@link #getPageRuns(WorkflowJob, int, int, int)}
+     */
+    public static RunsPageExt create(WorkflowJob job, List<WorkflowRun> pageRuns, int limit, int before, int after, boolean fullStages) {
+        limit = getPageSize(limit);
+
+        RunsPageExt page = new RunsPageExt();
+        page.setRuns(JobExt.create(pageRuns, null, fullStages, pageRuns.size()));
+
+        RunsPageLinks links = new RunsPageLinks();
+        links.initSelf(getPageUrl(job, limit, before, (before > 0) ? 0 : after, fullStages));
+        if (!pageRuns.isEmpty()) {
+            WorkflowRun newest = pageRuns.get(0);
+            WorkflowRun oldest = pageRuns.get(pageRuns.size() - 1);
+            if (oldest.getPreviousBuild() != null) {
+                links.setNext(Link.newLink(getPageUrl(job, limit, oldest.getNumber(), 0, fullStages)));
+            }
+            if (newest.getNextBuild() != null) {
+                links.setPrev(Link.newLink(getPageUrl(job, limit, 0, newest.getNumber(), fullStages)));
+            }
+        }
+        page.set_links(links);
+        return page;
+    }
+
+    /**
+     * Look up the runs on a page, newest first, without creating them.
+     * @see #create(WorkflowJob, int, int, int, boolean)
+     */
+    public static List<WorkflowRun> getPageRuns(WorkflowJob job, int limit, int before, int after) {
+        limit = getPageSize(limit);
+
+        List<WorkflowRun> pageRuns = new ArrayList<>(limit);
+        if (before > 0) {
+            for (WorkflowRun run = job.getNearestOldBuild(before - 1); run != null && pageRuns.size() < limit; run = run.getPreviousBuild()) {
+                pageRuns.add(run);
+            }
+        } else if (after > 0) {
+            // Walk forwards from the cursor, then flip so the page is newest first like the others
+            for (WorkflowRun run = job.getNearestBuild(after + 1); run != null && pageRuns.size() < limit; run = run.getNextBuild()) {
+                pageRuns.add(run);
+            }
+            Collections.reverse(pageRuns);
+        } else {
+            for (WorkflowRun run = job.getLastBuild(); run != null && pageRuns.size() < limit; run = run.getPreviousBuild()) {
+                pageRuns.add(run);
+            }
+        }
+        return pageRuns;
+    }
+
+    private static int getPageSize(int limit) {
+        int maxRunsPerPage = Integer.getInteger(MAX_RUNS_PER_PAGE_PROPERTY_NAME, MAX_RUNS_PER_PAGE_DEFAULT);
+        if (limit <= 0) {
+            limit = Integer.getInteger(JobExt.MAX_RUNS_PER_JOB_PROPERTY_NAME, JobExt.MAX_RUNS_PER_JOB_DEFAULT);
+        }
+        return Math.max(1, Math.min(limit, maxRunsPerPage));
+    }
+
+    private static String getPageUrl(WorkflowJob job, int limit, int before, int after, boolean fullStages) {
+        StringBuilder url = new StringBuilder(JobAPI.getRunsUrl(job)).append("?limit=").append(limit);
+        if (before > 0) {
+            url.append("&before=").append(before);
+        }
+        if (after > 0) {
+            url.append("&after=").append(after);
+        }
+        if (fullStages) {
+            url.append("&fullStages=true");
+        }
+        return url.toString();
+    }
+}
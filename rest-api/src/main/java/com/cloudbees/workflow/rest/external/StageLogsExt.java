@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.rest.endpoints.flownode.StageLogs;
+import com.cloudbees.workflow.rest.hal.Links;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.collect.AbstractIterator;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.jenkinsci.plugins.workflow.actions.LogAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The logs of all the steps in a stage, to get them in one request rather than one per step.
+ * <p>
+ * As created by {@link #create}, each step's log is only read as it is written to the response, so a stage with
+ * many steps is never held in memory at once. They are read again each time {@link #getNodeLogs()} is iterated.
+ * </p>
+ */
+public class StageLogsExt {
+
+    private static final Logger LOGGER = Logger.getLogger(StageLogsExt.class.getName());
+
+    private StageLogsLinks _links;
+    private String nodeId;
+    private StatusExt nodeStatus;
+    private Iterable<FlowNodeLogExt> nodeLogs;
+
+    public StageLogsLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(StageLogsLinks _links) {
+        this._links = _links;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public StatusExt getNodeStatus() {
+        return nodeStatus;
+    }
+
+    public void setNodeStatus(StatusExt nodeStatus) {
+        this.nodeStatus = nodeStatus;
+    }
+
+    /** Logs of the steps in the stage that have one, in the order they ran, each with its {@code nextStart} */
+    public Iterable<FlowNodeLogExt> getNodeLogs() {
+        return nodeLogs;
+    }
+
+    /** Read back as a list, so iterating it again does not read anything */
+    @JsonDeserialize(as = ArrayList.class)
+    public void setNodeLogs(Iterable<FlowNodeLogExt> nodeLogs) {
+        this.nodeLogs = nodeLogs;
+    }
+
+    public static final class StageLogsLinks extends Links {
+    }
+
+    /**
+     * @param stageNode Start node of the stage
+     * @param stage The stage, with all its child node IDs
+     * @param starts Offset to return the log of a step from, by node ID. The tail of the log for other steps.
+     */
+    public static StageLogsExt create(@NonNull FlowNode stageNode, @NonNull StageNodeExt stage, @NonNull Map<String, Long> starts) {
+        StageLogsExt stageLogs = new StageLogsExt();
+        stageLogs.set_links((StageLogsLinks) new StageLogsLinks().initSelf(StageLogs.getUrl(stageNode)));
+        stageLogs.setNodeId(stage.getId());
+        stageLogs.setNodeStatus(stage.getStatus());
+
+        final FlowExecution execution = stageNode.getExecution();
+        final List<String> childNodeIds = stage.getAllChildNodeIds();
+        stageLogs.nodeLogs = () -> new AbstractIterator<FlowNodeLogExt>() {
+            private final Iterator<String> ids = childNodeIds.iterator();
+
+            @Override
+            protected FlowNodeLogExt computeNext() {
+                while (ids.hasNext()) {
+                    String id = ids.next();
+                    FlowNode node;
+                    try {
+                        node = execution.getNode(id);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Unable to load node " + id + " of stage " + stageNode.getId(), e);
+                        continue;
+                    }
+                    if (node != null && node.getAction(LogAction.class) != null) {
+                        // Always from an offset, even if only from the start, so each comes with its nextStart
+                        Long start = starts.get(id);
+                        return FlowNodeLogExt.create(node, (start != null) ? start : 0L);
+                    }
+                }
+                return endOfData();
+            }
+        };
+        return stageLogs;
+    }
+}
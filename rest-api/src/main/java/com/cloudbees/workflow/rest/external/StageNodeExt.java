@@ -24,12 +24,23 @@
 package com.cloudbees.workflow.rest.external;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.NodeIdList;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import org.jenkinsci.plugins.workflow.actions.LabelAction;
 import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.AtomNode;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StageChunkFinder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -43,7 +54,7 @@ public class StageNodeExt extends FlowNodeExt {
     private List<AtomFlowNodeExt> stageFlowNodes;
 
     /** Bit of a hack but this lets us cache all the child nodes, not just the limited subset without adding to JSON responses */
-    transient List<String> allChildNodeIds = new ArrayList<>();
+    transient NodeIdList allChildNodeIds = NodeIdList.EMPTY;
 
     // Limit the size of child nodes returned
     static final int MAX_CHILD_NODES = Integer.getInteger(StageNodeExt.class.getName()+".maxChildNodes", 100);
@@ -61,10 +72,61 @@ public class StageNodeExt extends FlowNodeExt {
         return (node.getAction(LabelAction.class) != null && node.getAction(ThreadNameAction.class) == null);
     }
 
+    /**
+     * Computes a single completed stage by visiting only the nodes within it, rather than the whole run.
+     * @param run Run the stage belongs to
+     * @param stageStart Start node of the stage
+     * @return The stage, or null if it is still running or is not block-scoped, so it cannot be isolated this way
+     */
+    @CheckForNull
+    public static StageNodeExt createCompletedStage(@NonNull WorkflowRun run, @NonNull FlowNode stageStart) {
+        if (!(stageStart instanceof BlockStartNode)) {
+            return null;  // Legacy marker stages run until the next one begins
+        }
+        FlowExecution execution = stageStart.getExecution();
+        BlockEndNode<?> end = execution.getEndNode((BlockStartNode) stageStart);
+        if (end == null) {
+            return null;
+        }
+        // Start from the node after the stage, so its timing and status are computed as in a full scan
+        FlowNode after = FlowNodeUtil.getNodeAfter(end);
+        if (after == null) {
+            return null;
+        }
+
+        ChunkVisitor visitor = new ChunkVisitor(run);
+        visitor.isLastChunk = false;
+        ForkScanner.visitSimpleChunks(Collections.singletonList(after), stageStart.getParents(), visitor, new StageChunkFinder());
+        for (StageNodeExt stage : visitor.getStages()) {
+            if (stage.getId().equals(stageStart.getId())) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
     /** Return full list of child node IDs */
     @JsonIgnore // Just in case
     public List<String> getAllChildNodeIds() {
-        return Collections.unmodifiableList(allChildNodeIds);
+        return allChildNodeIds.asList();
+    }
+
+    /** Restores the full list of child node IDs, for example when loading a persisted run */
+    @Restricted(NoExternalUse.class)
+    public void setAllChildNodeIds(List<String> allChildNodeIds) {
+        this.allChildNodeIds = NodeIdList.of(allChildNodeIds);
+    }
+
+    /** Full list of child node IDs, as stored */
+    @Restricted(NoExternalUse.class)
+    @JsonIgnore
+    public NodeIdList getChildNodeIdList() {
+        return allChildNodeIds;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void setChildNodeIdList(NodeIdList allChildNodeIds) {
+        this.allChildNodeIds = allChildNodeIds;
     }
 
     /** Hides child nodes, so we store a complete image but only return the minimal amount of data */
@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.flownode.StageStatistics;
+import com.cloudbees.workflow.rest.endpoints.JobAPI;
+import com.cloudbees.workflow.rest.hal.Links;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Duration and failure statistics of each stage of a job, over its most recent builds.
+ * <p>
+ * Stages are matched by name. A stage only counts in the builds that ran it, so {@code count} can be less than
+ * {@code builds}. Stages are in the order of the newest build, followed by stages only found in older builds.
+ * </p>
+ */
+public class StageStatisticsExt {
+
+    private StageStatisticsLinks _links;
+    private int builds;
+    private boolean complete;
+    private List<StageStats> stages;
+
+    public StageStatisticsLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(StageStatisticsLinks _links) {
+        this._links = _links;
+    }
+
+    /** Number of builds the statistics are over */
+    public int getBuilds() {
+        return builds;
+    }
+
+    public void setBuilds(int builds) {
+        this.builds = builds;
+    }
+
+    /** False while builds are still being added in the background, the statistics then cover fewer of them */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public List<StageStats> getStages() {
+        return stages;
+    }
+
+    public void setStages(List<StageStats> stages) {
+        this.stages = stages;
+    }
+
+    public static final class StageStatisticsLinks extends Links {
+    }
+
+    public static class StageStats {
+        private String name;
+        private int count;
+        private long meanDurationMillis;
+        private long p50DurationMillis;
+        private long p95DurationMillis;
+        private double failureRate;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /** Number of builds that ran the stage */
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public long getMeanDurationMillis() {
+            return meanDurationMillis;
+        }
+
+        public void setMeanDurationMillis(long meanDurationMillis) {
+            this.meanDurationMillis = meanDurationMillis;
+        }
+
+        public long getP50DurationMillis() {
+            return p50DurationMillis;
+        }
+
+        public void setP50DurationMillis(long p50DurationMillis) {
+            this.p50DurationMillis = p50DurationMillis;
+        }
+
+        public long getP95DurationMillis() {
+            return p95DurationMillis;
+        }
+
+        public void setP95DurationMillis(long p95DurationMillis) {
+            this.p95DurationMillis = p95DurationMillis;
+        }
+
+        /** Fraction of the builds that ran the stage in which it failed, from 0 to 1 */
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        public void setFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+        }
+    }
+
+    /**
+     * @param job The job
+     * @param maxBuilds How many of the most recent builds to cover, or 0 for as many as are kept
+     */
+    public static StageStatisticsExt create(WorkflowJob job, int maxBuilds) {
+        String url = JobAPI.getStageStatisticsUrl(job) + ((maxBuilds > 0) ? "?builds=" + maxBuilds : "");
+        List<StageStatistics.BuildSample> samples = StageStatistics.getBuilds(job, (maxBuilds > 0) ? maxBuilds : Integer.MAX_VALUE);
+
+        // Durations and failures of each stage, newest build first
+        Map<String, List<StageStatistics.StageSample>> byName = new LinkedHashMap<>();
+        for (StageStatistics.BuildSample build : samples) {
+            for (StageStatistics.StageSample stage : build.stages) {
+                byName.computeIfAbsent(stage.name, name -> new ArrayList<>()).add(stage);
+            }
+        }
+
+        List<StageStats> stages = new ArrayList<>(byName.size());
+        for (Map.Entry<String, List<StageStatistics.StageSample>> entry : byName.entrySet()) {
+            List<StageStatistics.StageSample> runs = entry.getValue();
+            long[] durations = new long[runs.size()];
+            long total = 0;
+            int failures = 0;
+            for (int i = 0; i < durations.length; i++) {
+                durations[i] = runs.get(i).durationMillis;
+                total += durations[i];
+                if (runs.get(i).failed) {
+                    failures++;
+                }
+            }
+            Arrays.sort(durations);
+
+            StageStats stats = new StageStats();
+            stats.setName(entry.getKey());
+            stats.setCount(durations.length);
+            stats.setMeanDurationMillis(total / durations.length);
+            stats.setP50DurationMillis(percentile(durations, 50));
+            stats.setP95DurationMillis(percentile(durations, 95));
+            stats.setFailureRate((double) failures / durations.length);
+            stages.add(stats);
+        }
+
+        StageStatisticsExt statistics = new StageStatisticsExt();
+        statistics.set_links((StageStatisticsLinks) new StageStatisticsLinks().initSelf(url));
+        statistics.setBuilds(samples.size());
+        statistics.setComplete(StageStatistics.isComplete(job));
+        statistics.setStages(stages);
+        return statistics;
+    }
+
+    /** Nearest-rank percentile of sorted, non empty values */
+    static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -43,6 +43,13 @@ public abstract class Links {
     @SuppressFBWarnings(value = "PA_PUBLIC_PRIMITIVE_ATTRIBUTE", justification = "Only used internally anyway.")
     public Link self;
 
+    /**
+     * The self link. Subclasses may put it together when asked, rather than hold it in {@link #self}.
+     */
+    public Link getSelf() {
+        return self;
+    }
+
     public Links initSelf(String rel) {
         self = Link.newLink(rel);
         return this;
@@ -50,6 +57,6 @@ public abstract class Links {
 
     @Override
     public String toString() {
-        return self.href;
+        return getSelf().href;
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.PluginWrapper;
+import hudson.model.Queue;
+import hudson.model.Result;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Entity tags for responses about completed runs, so polling clients can be answered with {@code 304 Not Modified}
+ * before anything is computed.
+ * <p>
+ * A tag is a hash of the request (path and query, so {@code fullStages}, {@code fields} etc. are covered), of the
+ * plugin version, and of the version information of each run in the response: its ID, start time, result, duration
+ * and display name. Responses about runs that are still building change with every request (durations grow),
+ * so they get no tag.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class ConditionalGet {
+
+    private static final boolean DISABLED = Boolean.getBoolean(ConditionalGet.class.getName() + ".disabled");
+
+    /** Version of this plugin, so tags change on upgrades, which may change the responses, see {@link #getVersion()} */
+    private static volatile String version;
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * Tag a response about some runs
+     * @param runs The runs in the response, in order
+     * @param extra Anything else the response depends on, such as neighbouring build numbers
+     * @return The tag, or null if any of the runs is still building
+     */
+    @CheckForNull
+    public static String tagRuns(@NonNull Iterable<WorkflowRun> runs, @NonNull Object... extra) {
+        if (DISABLED) {
+            return null;
+        }
+        Hasher hasher = Hashing.sha256().newHasher();
+        StaplerRequest2 req = Stapler.getCurrentRequest2();
+        if (req != null) {
+            putString(hasher, req.getContextPath());
+            putString(hasher, req.getRequestURI());
+            putString(hasher, req.getQueryString());
+        }
+        putString(hasher, getVersion());
+        for (WorkflowRun run : runs) {
+            if (run.isBuilding()) {
+                return null;
+            }
+            Result result = run.getResult();
+            putString(hasher, run.getExternalizableId());
+            hasher.putLong(run.getStartTimeInMillis()).putLong(run.getDuration());
+            putString(hasher, (result != null) ? result.toString() : null);
+            putString(hasher, run.getDisplayName());
+        }
+        for (Object o : extra) {
+            putString(hasher, String.valueOf(o));
+        }
+        return '"' + hasher.hash().toString() + '"';
+    }
+
+    /** The plugin version, or "null" if this does not run as a plugin, as in tests */
+    @NonNull
+    private static String getVersion() {
+        String v = version;
+        if (v == null) {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins == null) {
+                return "null";
+            }
+            // The package has no implementation version under the plugin class loader
+            PluginWrapper plugin = jenkins.getPluginManager().whichPlugin(ConditionalGet.class);
+            v = String.valueOf((plugin != null) ? plugin.getVersion() : null);
+            version = v;
+        }
+        return v;
+    }
+
+    /**
+     * Tag a response about part of a flow graph
+     * @return The tag, or null if the run is still building
+     */
+    @CheckForNull
+    public static String tagExecution(@NonNull FlowExecution execution) {
+        try {
+            Queue.Executable exec = execution.getOwner().getExecutable();
+            if (exec instanceof WorkflowRun && execution.isComplete()) {
+                return tagRuns(Collections.singletonList((WorkflowRun) exec));
+            }
+        } catch (IOException e) {
+            // No tag then
+        }
+        return null;
+    }
+
+    /**
+     * Check the client's copy of the response against its tag.
+     * Sets the {@code ETag} header on the current response, so the full response carries it too.
+     * @param etag The response's tag, or null if it has none
+     * @return A {@code 304 Not Modified} response if the client's copy is current, otherwise null
+     */
+    @CheckForNull
+    public static HttpResponse check(@CheckForNull String etag) {
+        StaplerRequest2 req = Stapler.getCurrentRequest2();
+        StaplerResponse2 rsp = Stapler.getCurrentResponse2();
+        if (etag == null || req == null || rsp == null) {
+            return null;
+        }
+        rsp.setHeader("ETag", etag);
+        // Clients may keep the response, but must ask whether it is still current
+        rsp.setHeader("Cache-Control", "no-cache");
+        return matches(req.getHeader("If-None-Match"), etag) ? HttpResponses.status(304) : null;
+    }
+
+    static boolean matches(@CheckForNull String ifNoneMatch, @NonNull String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void putString(@NonNull Hasher hasher, @CheckForNull String s) {
+        if (s == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+        }
+    }
+}
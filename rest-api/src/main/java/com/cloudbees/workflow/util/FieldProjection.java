@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Writes only the requested fields of a response, as given by the {@code fields} query parameter.
+ * <p>
+ * Fields are a comma separated list of dotted JSON property paths, e.g. {@code id,status,stages.name}.
+ * Arrays are transparent: {@code stages.name} is the name of every stage. Asking for a field includes everything
+ * below it, so {@code _links} returns all of the links.
+ * </p>
+ */
+public final class FieldProjection {
+
+    private static final String FILTER_ID = "wfapi-fields";
+
+    /** Mappers that apply {@link #FILTER_ID} to every bean, one per base mapper so serializers are shared */
+    private static final Map<ObjectMapper, ObjectMapper> FILTERING_MAPPERS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Set<String> requested = new HashSet<>();
+
+    /** The requested paths plus every path leading to one */
+    private final Set<String> included = new HashSet<>();
+
+    private FieldProjection(@NonNull List<String> paths) {
+        for (String path : paths) {
+            requested.add(path);
+            for (int dot = path.indexOf('.'); dot > 0; dot = path.indexOf('.', dot + 1)) {
+                included.add(path.substring(0, dot));
+            }
+            included.add(path);
+        }
+    }
+
+    /**
+     * Parse the fields parameter
+     * @param fields Fields parameter value
+     * @return The projection, or null if all fields are to be written
+     */
+    @CheckForNull
+    public static FieldProjection parse(@CheckForNull String fields) {
+        if (fields == null) {
+            return null;
+        }
+        List<String> paths = new ArrayList<>();
+        for (String field : fields.split(",")) {
+            String path = field.trim();
+            if (!path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        return paths.isEmpty() ? null : new FieldProjection(paths);
+    }
+
+    /** Writer for the projected response, from the mapper that would otherwise be used for it */
+    @NonNull
+    public ObjectWriter writer(@NonNull ObjectMapper base) {
+        ObjectMapper filtering;
+        synchronized (FILTERING_MAPPERS) {
+            filtering = FILTERING_MAPPERS.get(base);
+            if (filtering == null) {
+                filtering = base.copy();
+                filtering.setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+                    @Override
+                    public Object findFilterId(Annotated a) {
+                        Object id = super.findFilterId(a);
+                        return (id != null) ? id : FILTER_ID;
+                    }
+                });
+                FILTERING_MAPPERS.put(base, filtering);
+            }
+        }
+        return filtering.writer(new SimpleFilterProvider().addFilter(FILTER_ID, new PathFilter()));
+    }
+
+    boolean isIncluded(@NonNull String path) {
+        if (included.contains(path)) {
+            return true;
+        }
+        // Below a requested field
+        for (int dot = path.indexOf('.'); dot > 0; dot = path.indexOf('.', dot + 1)) {
+            if (requested.contains(path.substring(0, dot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Path of the field about to be written, from the names of the fields enclosing the current object */
+    @NonNull
+    static String getPath(@NonNull JsonGenerator gen, @NonNull String fieldName) {
+        StringBuilder path = new StringBuilder(fieldName);
+        for (JsonStreamContext ctx = gen.getOutputContext().getParent(); ctx != null; ctx = ctx.getParent()) {
+            if (ctx.inObject() && ctx.getCurrentName() != null) {
+                path.insert(0, '.').insert(0, ctx.getCurrentName());
+            }
+        }
+        return path.toString();
+    }
+
+    private final class PathFilter extends SimpleBeanPropertyFilter {
+        @Override
+        public void serializeAsField(Object pojo, JsonGenerator gen, SerializerProvider provider, PropertyWriter writer) throws Exception {
+            if (isIncluded(getPath(gen, writer.getName()))) {
+                writer.serializeAsField(pojo, gen, provider);
+            } else if (!gen.canOmitFields()) {
+                writer.serializeAsOmittedField(pojo, gen, provider);
+            }
+        }
+    }
+}
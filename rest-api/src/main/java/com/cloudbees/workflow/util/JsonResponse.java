@@ -1,12 +1,16 @@
 package com.cloudbees.workflow.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 
 import jakarta.servlet.ServletException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * POJO converted to JSON via Jackson as HTTP response.
@@ -16,15 +20,65 @@ import java.io.IOException;
 public class JsonResponse implements HttpResponse {
     public final Object pojo;
     public final ObjectMapper mapper;
+    @CheckForNull
+    public final FieldProjection fields;
 
     public JsonResponse(ObjectMapper mapper, Object pojo) {
+        this(mapper, pojo, null);
+    }
+
+    /**
+     * @param fields Fields of the POJO to write, or null for all of them
+     */
+    public JsonResponse(ObjectMapper mapper, Object pojo, @CheckForNull FieldProjection fields) {
         this.mapper = mapper;
         this.pojo = pojo;
+        this.fields = fields;
     }
 
     @Override
     public void generateResponse(StaplerRequest2 req, StaplerResponse2 rsp, Object node) throws IOException, ServletException {
         rsp.setContentType("application/json; charset=UTF-8");
-        mapper.writeValue(rsp.getOutputStream(),pojo);
+        if (fields != null) {
+            fields.writer(mapper).writeValue(rsp.getOutputStream(), pojo);
+        } else if (!writePreSerialized(rsp.getOutputStream())) {
+            mapper.writeValue(rsp.getOutputStream(),pojo);
+        }
+    }
+
+    /**
+     * Copy out the JSON already held by the POJO, or by every element of a list POJO.
+     * @return false if some of it has to be serialized, and nothing was written
+     */
+    private boolean writePreSerialized(OutputStream out) throws IOException {
+        if (pojo instanceof PreSerializedJson) {
+            byte[] json = ((PreSerializedJson) pojo).getJsonBytes(mapper);
+            if (json == null) {
+                return false;
+            }
+            out.write(json);
+            return true;
+        }
+        if (!(pojo instanceof List)) {
+            return false;
+        }
+        List<?> list = (List<?>) pojo;
+        List<byte[]> elements = new ArrayList<>(list.size());
+        for (Object element : list) {
+            byte[] json = (element instanceof PreSerializedJson) ? ((PreSerializedJson) element).getJsonBytes(mapper) : null;
+            if (json == null) {
+                return false;
+            }
+            elements.add(json);
+        }
+        out.write('[');
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(elements.get(i));
+        }
+        out.write(']');
+        return true;
     }
 }
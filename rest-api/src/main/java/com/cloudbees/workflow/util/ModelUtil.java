@@ -23,17 +23,22 @@
  */
 package com.cloudbees.workflow.util;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest2;
 
 import java.io.IOException;
+import java.util.function.Supplier;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 public class ModelUtil {
 
+    /** Root URL for threads writing out model objects outside of a request, see {@link #withRootUrl(String, Supplier)} */
+    private static final ThreadLocal<String> ROOT_URL = new ThreadLocal<>();
+
     private ModelUtil() {
     }
 
@@ -54,7 +59,31 @@ public class ModelUtil {
     }
 
     public static String getRootUrl() {
+        String rootUrl = ROOT_URL.get();
+        if (rootUrl != null) {
+            return rootUrl;
+        }
         StaplerRequest2 currentRequest = Stapler.getCurrentRequest2();
         return (currentRequest != null) ? currentRequest.getContextPath() : "/";
     }
+
+    /**
+     * Write out model objects outside of a request, with the links they would have in one.
+     * @param rootUrl The root URL of the request, see {@link #getRootUrl()}
+     * @param supplier Creates and writes out the objects
+     * @return What the supplier returned
+     */
+    public static <V> V withRootUrl(@NonNull String rootUrl, @NonNull Supplier<V> supplier) {
+        String previous = ROOT_URL.get();
+        ROOT_URL.set(rootUrl);
+        try {
+            return supplier.get();
+        } finally {
+            if (previous != null) {
+                ROOT_URL.set(previous);
+            } else {
+                ROOT_URL.remove();
+            }
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.cloudbees.workflow.util;
 
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.interceptor.Interceptor;
@@ -28,7 +29,11 @@ public @interface ServeJson {
                 throws IllegalAccessException, InvocationTargetException {
             try {
                 Object o = target.invoke(request, response, instance, arguments);
-                return new JsonResponse(JSONReadWrite.jsonMapper,o);
+                if (o instanceof HttpResponse) {
+                    // Already a response, e.g. 304 Not Modified
+                    return o;
+                }
+                return new JsonResponse(JSONReadWrite.jsonMapper, o, FieldProjection.parse(request.getParameter("fields")));
             } catch (Exception e) {
                 // TODO: Can be removed and ServletException added to throws declarations from 1.651+
                 throw new RuntimeException("Unexpected exception while serving JSON", e);
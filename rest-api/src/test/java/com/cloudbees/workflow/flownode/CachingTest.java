@@ -23,8 +23,12 @@
  */
 package com.cloudbees.workflow.flownode;
 
+import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
 import com.cloudbees.workflow.rest.external.RunExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.cloudbees.workflow.util.ModelUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.cache.Cache;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -34,6 +38,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the improved run cache invalidation routines
  */
@@ -102,7 +111,16 @@ public class CachingTest {
         String newJobKey = build.getExternalizableId();
         Assert.assertNull("Cache entry should be removed for renamed job", cache.getIfPresent(runKey));
         Assert.assertEquals("Non-renamed jobs should still be cached", r2, cache.getIfPresent(runKey2));
-        Assert.assertNull("Cache entry should not be present with new job name", cache.getIfPresent(newJobKey));
+        Assert.assertSame("Cache entry should be kept with new job name", r, cache.getIfPresent(newJobKey));
+        FlowNodeUtil.CacheExtension ext = FlowNodeUtil.CacheExtension.all().get(0);
+        Assert.assertEquals(Collections.singleton(newJobKey), ext.getCachedRunKeys("NewName"));
+        Assert.assertTrue(ext.getCachedRunKeys("BlinkinJob").isEmpty());
+        Assert.assertSame(r, RunExt.create(build));
+
+        // Links are put together from where the run is now
+        Assert.assertEquals("/job/NewName/1/wfapi/describe", r.get_links().getSelf().href);
+        Assert.assertArrayEquals("Bytes with the old links should not be served",
+                JSONReadWrite.jsonMapper.writeValueAsBytes(r), r.getJsonBytes(JSONReadWrite.jsonMapper));
     }
 
     @Test
@@ -116,6 +134,8 @@ public class CachingTest {
                 true));
         WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
         jenkinsRule.assertBuildStatusSuccess(build);
+        jenkinsRule.waitUntilNoActivity();
+        waitForPrecomputer();
         //Create invalid cache entry
         RunExt r = RunExt.createNew(build);
         r.setStatus(StatusExt.FAILED);
@@ -125,4 +145,114 @@ public class CachingTest {
         Assert.assertNull(FlowNodeUtil.getCachedRun(build));
         Assert.assertNull(cache.getIfPresent(runKey));
     }
+
+    @Test
+    public void persistedRunTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PersistedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { echo 'building'; echo 'still building' }\n" +
+                "stage ('Test') { echo 'testing' }",
+                true));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt r = RunExt.create(build);
+        Assert.assertTrue("Snapshot should be written for a completed run", RunSnapshot.getFile(build).isFile());
+
+        // Simulate a restart: memory is empty but the snapshot in the build directory remains
+        cache.invalidateAll();
+        RunExt restored = FlowNodeUtil.getCachedRun(build);
+        Assert.assertNotNull(restored);
+        Assert.assertNotSame(r, restored);
+        Assert.assertSame("Restored run should be cached in memory again", restored, cache.getIfPresent(build.getExternalizableId()));
+        Assert.assertEquals(r.getStatus(), restored.getStatus());
+        Assert.assertEquals(r.getStages().size(), restored.getStages().size());
+        for (int i = 0; i < r.getStages().size(); i++) {
+            Assert.assertEquals(r.getStages().get(i).getId(), restored.getStages().get(i).getId());
+            Assert.assertEquals(r.getStages().get(i).getAllChildNodeIds(), restored.getStages().get(i).getAllChildNodeIds());
+            Assert.assertEquals(r.getStages().get(i).get_links().getSelf().href, restored.getStages().get(i).get_links().getSelf().href);
+        }
+        Assert.assertTrue("Restored links should follow the run", restored.get_links().isDerived());
+        Assert.assertEquals(r.get_links().getSelf().href, restored.get_links().getSelf().href);
+    }
+
+    @Test
+    public void preSerializedRunTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "FrozenJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { echo 'building' }",
+                true));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt r = RunExt.create(build);
+
+        // Cached runs carry the bytes the mapper would write, for themselves and their (shared) wrapper, once asked for
+        Assert.assertEquals(0, RunExt.getFrozenJsonSize(r));
+        byte[] json = r.getJsonBytes(JSONReadWrite.jsonMapper);
+        Assert.assertNotNull(json);
+        Assert.assertEquals(json.length, RunExt.getFrozenJsonSize(r));
+        Assert.assertArrayEquals(JSONReadWrite.jsonMapper.writeValueAsBytes(r), json);
+        RunExt wrapper = r.createWrapper();
+        Assert.assertSame(wrapper, r.createWrapper());
+        Assert.assertArrayEquals(JSONReadWrite.jsonMapper.writeValueAsBytes(wrapper), wrapper.getJsonBytes(JSONReadWrite.jsonMapper));
+
+        // Kept for each root URL the run is asked for at
+        byte[] otherJson = ModelUtil.withRootUrl("/other", () -> r.getJsonBytes(JSONReadWrite.jsonMapper));
+        Assert.assertNotNull(otherJson);
+        Assert.assertTrue(new String(otherJson, StandardCharsets.UTF_8).contains("\"/other/job/FrozenJob/1/wfapi/describe\""));
+        Assert.assertSame(otherJson, ModelUtil.withRootUrl("/other", () -> r.getJsonBytes(JSONReadWrite.jsonMapper)));
+        Assert.assertSame(json, r.getJsonBytes(JSONReadWrite.jsonMapper));
+
+        // Not for other mappers, or runs that were never cached
+        Assert.assertNull(r.getJsonBytes(new ObjectMapper()));
+        Assert.assertNull(RunExt.createNew(build).getJsonBytes(JSONReadWrite.jsonMapper));
+    }
+
+    @Test
+    public void precomputedRunTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "EagerJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { echo 'building' }",
+                true));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt precomputed = null;
+        for (int i = 0; i < 100 && precomputed == null; i++) {
+            waitForPrecomputer();
+            precomputed = cache.getIfPresent(build.getExternalizableId());
+            if (precomputed == null) {
+                Thread.sleep(100);
+            }
+        }
+        Assert.assertNotNull("Finished run should be cached without being asked for", precomputed);
+        AtomFlowNodeExt echo = precomputed.getStages().get(0).getStageFlowNodes().get(0);
+        // Links are put together for the request they are written out for
+        Assert.assertEquals("/jenkins/job/EagerJob/1/execution/node/" + echo.getId() + "/wfapi/log",
+                ModelUtil.withRootUrl("/jenkins", () -> echo.get_links().getLog().href));
+        RunExt described = new JSONReadWrite().fromString(jenkinsRule.createWebClient()
+                .goTo("job/EagerJob/1/wfapi/describe", "application/json").getWebResponse().getContentAsString(), RunExt.class);
+        Assert.assertEquals("/jenkins/job/EagerJob/1/wfapi/describe", described.get_links().self.href);
+        Assert.assertSame(precomputed, RunExt.create(build));
+        // Seeded in the background from the build directories, which only hold the run precomputed
+        for (int i = 0; i < 100 && !StageStatistics.isComplete(job); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(StageStatistics.isComplete(job));
+        Assert.assertEquals(1, StageStatistics.getBuilds(job, 10).size());
+    }
+
+    /** Every background thread picking up a barrier means the runs queued before it have been computed */
+    private static void waitForPrecomputer() throws Exception {
+        int threads = RunPrecomputer.EXECUTOR.getMaximumPoolSize();
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        for (int i = 0; i < threads; i++) {
+            RunPrecomputer.EXECUTOR.execute(() -> {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    // Timed out, failing the test below
+                }
+            });
+        }
+        barrier.await(10, TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that concurrent computations of the same run are coalesced
+ */
+public class InFlightRunsTest {
+
+    @Test
+    public void concurrentCallersShareOneComputation() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger computations = new AtomicInteger();
+        final RunExt computed = new RunExt();
+        long coalescedBefore = InFlightRuns.getCoalescedCount();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<RunExt> leader = pool.submit(() -> InFlightRuns.compute("SharedJob#1", () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new IllegalStateException(ie);
+                }
+                return computed;
+            }));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            Future<RunExt> follower1 = pool.submit(() -> InFlightRuns.compute("SharedJob#1", () -> {
+                computations.incrementAndGet();
+                return new RunExt();
+            }));
+            Future<RunExt> follower2 = pool.submit(() -> InFlightRuns.compute("SharedJob#1", () -> {
+                computations.incrementAndGet();
+                return new RunExt();
+            }));
+
+            // Wait until both followers are parked on the in-flight computation
+            long deadline = System.currentTimeMillis() + 10000;
+            while (InFlightRuns.getCoalescedCount() - coalescedBefore < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assert.assertSame(computed, leader.get(10, TimeUnit.SECONDS));
+            Assert.assertSame(computed, follower1.get(10, TimeUnit.SECONDS));
+            Assert.assertSame(computed, follower2.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, computations.get());
+            Assert.assertEquals(2, InFlightRuns.getCoalescedCount() - coalescedBefore);
+
+            // Once done, the next caller computes again
+            RunExt next = InFlightRuns.compute("SharedJob#1", RunExt::new);
+            Assert.assertNotSame(computed, next);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresPropagateToWaiters() {
+        try {
+            InFlightRuns.compute("BrokenJob#1", () -> {
+                throw new IllegalStateException("broken");
+            });
+            Assert.fail("Expected the computation failure to propagate");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals("broken", expected.getMessage());
+        }
+    }
+}
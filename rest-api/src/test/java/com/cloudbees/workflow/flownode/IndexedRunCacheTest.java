@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.google.common.cache.CacheBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Tests the run cache's index of keys by job
+ */
+public class IndexedRunCacheTest {
+
+    private static IndexedRunCache newCache(long maxRuns) {
+        return new IndexedRunCache(CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxRuns)
+                .weigher((String key, RunExt run) -> 1));
+    }
+
+    @Test
+    public void keysByJob() {
+        IndexedRunCache cache = newCache(10);
+        cache.put("folder/a#1", new RunExt());
+        cache.put("folder/a#2", new RunExt());
+        cache.put("b#1", new RunExt());
+        cache.put("folder/a#2", new RunExt());  // Replaced, still cached
+
+        Assert.assertEquals(Set.of("folder/a#1", "folder/a#2"), cache.getKeys("folder/a"));
+        Assert.assertEquals(Collections.singleton("b#1"), cache.getKeys("b"));
+        Assert.assertTrue(cache.getKeys("folder").isEmpty());
+
+        cache.invalidate("folder/a#1");
+        Assert.assertEquals(Collections.singleton("folder/a#2"), cache.getKeys("folder/a"));
+        cache.asMap().remove("b#1");
+        Assert.assertTrue(cache.getKeys("b").isEmpty());
+        cache.invalidateAll();
+        Assert.assertTrue(cache.getKeys("folder/a").isEmpty());
+    }
+
+    @Test
+    public void evictionsAreRemoved() {
+        IndexedRunCache cache = newCache(2);
+        cache.put("a#1", new RunExt());
+        cache.put("a#2", new RunExt());
+        cache.put("a#3", new RunExt());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(cache.asMap().keySet(), cache.getKeys("a"));
+    }
+}
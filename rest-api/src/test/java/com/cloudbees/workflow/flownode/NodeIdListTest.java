@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.util.JSONReadWrite;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the range encoding of node IDs
+ */
+public class NodeIdListTest {
+
+    @Test
+    public void consecutiveIdsAreRanges() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 5; i < 1005; i++) {
+            ids.add(Integer.toString(i));
+        }
+        ids.add("1010");
+        ids.add("1011");
+        NodeIdList list = NodeIdList.of(ids);
+
+        Assert.assertArrayEquals(new int[] {5, 1000, 1010, 2}, list.getRanges());
+        Assert.assertEquals(1002, list.size());
+        Assert.assertEquals(ids, list.asList());
+        Assert.assertEquals("500", list.asList().get(495));
+        Assert.assertEquals("1011", list.asList().get(1001));
+    }
+
+    @Test
+    public void otherIdsKeepTheirPlace() {
+        List<String> ids = Arrays.asList("3", "4", "abc", "5", "007", "-1", "2147483648", "6");
+        NodeIdList list = NodeIdList.of(ids);
+
+        Assert.assertEquals(ids, list.asList());
+        Assert.assertEquals(ids.size(), list.size());
+        Assert.assertEquals(Arrays.asList("abc", "007", "-1", "2147483648"), Arrays.asList(list.getOthers()));
+
+        List<String> visited = new ArrayList<>();
+        for (NodeIdList.IdCursor cursor = list.cursor(); cursor.hasNext(); ) {
+            int id = cursor.nextInt();
+            visited.add((id >= 0) ? Integer.toString(id) : cursor.other());
+        }
+        Assert.assertEquals(ids, visited);
+    }
+
+    @Test
+    public void descendingIdsAreNotMerged() {
+        List<String> ids = Arrays.asList("9", "8", "7");
+        Assert.assertEquals(ids, NodeIdList.of(ids).asList());
+        Assert.assertEquals(6, NodeIdList.of(ids).getRanges().length);
+    }
+
+    @Test
+    public void empty() {
+        Assert.assertSame(NodeIdList.EMPTY, NodeIdList.of(Collections.emptyList()));
+        Assert.assertTrue(NodeIdList.EMPTY.asList().isEmpty());
+        Assert.assertFalse(NodeIdList.EMPTY.cursor().hasNext());
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        List<String> ids = Arrays.asList("3", "4", "5", "x", "9");
+        JSONReadWrite jsonReadWrite = new JSONReadWrite();
+        NodeIdList restored = jsonReadWrite.fromString(jsonReadWrite.toString(NodeIdList.of(ids)), NodeIdList.class);
+        Assert.assertEquals(ids, restored.asList());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that runs computed at the same time come back in order
+ */
+public class ParallelRunsTest {
+
+    @Test
+    public void resultsKeepTheOrderOfTheItems() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            // Later items finish first
+            List<Integer> results = ParallelRuns.map(Arrays.asList(40, 30, 20, 10), item -> false, item -> {
+                try {
+                    Thread.sleep(item);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return item + 1;
+            }, pool);
+            Assert.assertEquals(Arrays.asList(41, 31, 21, 11), results);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void expensiveItemsRunAtTheSameTime() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            // Each one waits for all of the others to start, so this only completes if they run concurrently
+            CountDownLatch started = new CountDownLatch(3);
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            Thread caller = Thread.currentThread();
+            List<String> results = ParallelRuns.map(Arrays.asList("cached", "a", "b", "c"), "cached"::equals, item -> {
+                threads.add(Thread.currentThread());
+                if (!item.equals("cached")) {
+                    started.countDown();
+                    try {
+                        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                } else {
+                    Assert.assertSame(caller, Thread.currentThread());
+                }
+                return item.toUpperCase();
+            }, pool);
+            Assert.assertEquals(Arrays.asList("CACHED", "A", "B", "C"), results);
+            Assert.assertEquals(4, threads.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresAreRethrown() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            ParallelRuns.map(Arrays.asList("a", "b"), item -> false, item -> {
+                if (item.equals("b")) {
+                    throw new IllegalArgumentException(item);
+                }
+                return item;
+            }, pool);
+            Assert.fail("Expected the failure to be rethrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("b", e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
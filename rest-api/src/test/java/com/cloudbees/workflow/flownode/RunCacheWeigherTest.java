@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that cached runs are weighed by their size, and the run cache kept within its budget
+ */
+public class RunCacheWeigherTest {
+
+    private final RunCacheWeigher weigher = new RunCacheWeigher();
+
+    @Test
+    public void weightGrowsWithStagesAndNodes() {
+        int small = weigher.weigh("job#1", newRun(3, 2));
+        Assert.assertTrue(small > 0);
+        Assert.assertTrue("More stages weigh more", weigher.weigh("job#1", newRun(30, 2)) > small);
+        Assert.assertTrue("More nodes weigh more", weigher.weigh("job#1", newRun(3, 20)) > small);
+        // Roughly in proportion
+        Assert.assertTrue(weigher.weigh("job#1", newRun(300, 2)) > 50 * small);
+    }
+
+    @Test
+    public void cacheEvictsAtTheConfiguredWeight() {
+        int weight = weigher.weigh("job#10", newRun(10, 10));
+        long maxWeight = 3L * weight + weight / 2;
+        Cache<String, RunExt> cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxWeight)
+                .weigher(weigher)
+                .recordStats()
+                .build();
+        for (int i = 10; i < 20; i++) {
+            cache.put("job#" + i, newRun(10, 10));
+        }
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(7, cache.stats().evictionCount());
+        // The oldest went first
+        Assert.assertNull(cache.asMap().get("job#10"));
+        Assert.assertNotNull(cache.asMap().get("job#19"));
+
+        // One big run takes the room of many small ones
+        cache.put("job#20", newRun(30, 10));
+        Assert.assertTrue(cache.size() < 3);
+    }
+
+    @Test
+    public void configuredBudget() {
+        FlowNodeUtil.CacheExtension cache = new FlowNodeUtil.CacheExtension();
+        Assert.assertEquals(FlowNodeUtil.CacheExtension.MAX_CACHE_MB * 1024 * 1024, cache.getMaxWeight());
+        cache.getRunCache().put("job#1", newRun(3, 2));
+        Assert.assertEquals(RunCacheWeigher.estimate(cache.getRunCache().asMap().get("job#1")), cache.getEstimatedWeight());
+    }
+
+    private static RunExt newRun(int stageCount, int nodesPerStage) {
+        RunExt run = new RunExt();
+        run.setId("1");
+        run.setName("#1");
+        List<StageNodeExt> stages = new ArrayList<>();
+        int nodeId = 3;
+        for (int s = 0; s < stageCount; s++) {
+            StageNodeExt stage = new StageNodeExt();
+            stage.setId(Integer.toString(nodeId++));
+            stage.setName("Stage " + s);
+            List<AtomFlowNodeExt> nodes = new ArrayList<>();
+            List<String> childIds = new ArrayList<>();
+            for (int n = 0; n < nodesPerStage; n++) {
+                AtomFlowNodeExt node = new AtomFlowNodeExt();
+                node.setId(Integer.toString(nodeId++));
+                node.setName("Shell Script");
+                nodes.add(node);
+                childIds.add(node.getId());
+            }
+            stage.setStageFlowNodes(nodes);
+            stage.setAllChildNodeIds(childIds);
+            stages.add(stage);
+        }
+        run.setStages(stages);
+        return run;
+    }
+}
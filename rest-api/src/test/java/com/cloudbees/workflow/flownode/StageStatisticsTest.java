@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests how the samples of a job keep builds in order, including the ones still to be added
+ */
+public class StageStatisticsTest {
+
+    @Test
+    public void buildsAreKeptNewestFirst() {
+        StageStatistics.Samples samples = new StageStatistics.Samples();
+        samples.add(sample(2));
+        samples.add(sample(5));
+        samples.add(sample(3));
+        samples.add(sample(5));
+        Assert.assertEquals(Arrays.asList(5, 3, 2), numbers(samples));
+    }
+
+    @Test
+    public void missingBuildsAreAddedLater() {
+        StageStatistics.Samples samples = new StageStatistics.Samples();
+        samples.add(sample(1));
+        samples.addMissing(3);
+        samples.addMissing(2);
+        samples.addMissing(1);
+        Assert.assertEquals(Arrays.asList(3, 2), samples.missing);
+        Assert.assertEquals(Arrays.asList(3), samples.getMissing(1));
+
+        samples.add(sample(3));
+        Assert.assertEquals(Arrays.asList(2), samples.missing);
+        Assert.assertTrue(samples.removeMissing(2));
+        Assert.assertFalse(samples.hasMissing());
+        Assert.assertTrue(samples.getMissing(StageStatistics.FILL_BATCH).isEmpty());
+        Assert.assertEquals(Arrays.asList(3, 1), numbers(samples));
+    }
+
+    @Test
+    public void missingBuildsTooOldToKeepAreDropped() {
+        StageStatistics.Samples samples = new StageStatistics.Samples();
+        samples.addMissing(1);
+        for (int number = 2; number < StageStatistics.MAX_BUILDS + 2; number++) {
+            samples.add(sample(number));
+        }
+        Assert.assertEquals(StageStatistics.MAX_BUILDS, samples.builds.size());
+        Assert.assertFalse(samples.hasMissing());
+    }
+
+    private static StageStatistics.BuildSample sample(int number) {
+        StageStatistics.BuildSample sample = new StageStatistics.BuildSample();
+        sample.number = number;
+        return sample;
+    }
+
+    private static List<Integer> numbers(StageStatistics.Samples samples) {
+        return samples.builds.stream().map(b -> b.number).collect(Collectors.toList());
+    }
+}
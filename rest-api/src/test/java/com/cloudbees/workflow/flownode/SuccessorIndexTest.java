@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+
+/**
+ * Tests the index of following nodes used by {@link FlowNodeUtil#getNodeAfter(FlowNode)}
+ */
+public class SuccessorIndexTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void parallelGraph() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ParallelJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { echo 'building' }\n" +
+                "stage ('Test') { parallel a: { echo 'a1'; echo 'a2' }, b: { echo 'b1' }, c: { stage ('Inner') { echo 'c1' } } }\n" +
+                "echo 'done'",
+                true));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        int checked = 0;
+        int several = 0;
+        for (FlowNode node : new DepthFirstScanner().allNodes(build.getExecution())) {
+            FlowNode after = SuccessorIndex.getNodeAfter(node);
+            if (node instanceof FlowEndNode) {
+                Assert.assertNull(after);
+                continue;
+            }
+            FlowNode searched = search(node);
+            if (after == null) {
+                // Parallel starts are left to the search, whichever branch it finds first
+                Assert.assertTrue("No node after " + node.getId(), countChildren(build, node) > 1);
+                Assert.assertEquals(searched, FlowNodeUtil.getNodeAfter(node));
+                several++;
+                continue;
+            }
+            Assert.assertEquals(searched, after);
+            checked++;
+        }
+        Assert.assertTrue(checked > 10);
+        Assert.assertEquals(1, several);
+    }
+
+    /** How {@link FlowNodeUtil#getNodeAfter(FlowNode)} finds the following node without the index */
+    private static FlowNode search(final FlowNode node) {
+        return new ForkScanner().findFirstMatch(node.getExecution().getCurrentHeads(),
+                                                Collections.singletonList(node),
+                                                input -> input.getParents().contains(node));
+    }
+
+    private static int countChildren(WorkflowRun build, FlowNode node) {
+        int count = 0;
+        for (FlowNode other : new DepthFirstScanner().allNodes(build.getExecution())) {
+            if (other.getParents().contains(node)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
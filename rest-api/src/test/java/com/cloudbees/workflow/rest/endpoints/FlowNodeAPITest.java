@@ -24,14 +24,20 @@
 package com.cloudbees.workflow.rest.endpoints;
 
 import com.cloudbees.workflow.Util;
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.rest.endpoints.flownode.Describe;
 import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
 import com.cloudbees.workflow.rest.external.FlowNodeExt;
 import com.cloudbees.workflow.rest.external.FlowNodeLogExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageLogsExt;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
 import com.cloudbees.workflow.util.JSONReadWrite;
+import com.google.common.collect.Iterables;
 import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
+import org.htmlunit.WebResponse;
 
 import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
@@ -46,6 +52,7 @@ import org.jvnet.hudson.test.JenkinsRule;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.net.URL;
 import java.util.List;
 
 import static org.hamcrest.Matchers.containsString;
@@ -94,6 +101,7 @@ public class FlowNodeAPITest {
         // Test the endpoints
         assert_describe_ok(webClient, jsonReadWrite, workflowRuns);
         assert_log_ok(webClient, jsonReadWrite, workflowRuns);
+        assert_stage_logs_ok(webClient, jsonReadWrite);
     }
 
     private void assert_describe_ok(JenkinsRule.WebClient webClient, JSONReadWrite jsonReadWrite, RunExt[] workflowRuns) throws IOException, SAXException {
@@ -148,6 +156,87 @@ public class FlowNodeAPITest {
         Assert.assertEquals("/jenkins/job/Noddy%20Job/1/execution/node/7/log", logExt.getConsoleUrl());
         Assert.assertNotNull(logExt.getText());
         Assert.assertThat(logExt.getText(), containsString("Building"));
+        Assert.assertNull(logExt.getNextStart());
+
+        // From the start, everything, then from where that left off nothing more
+        logExt = jsonReadWrite.fromString(webClient.goTo(Util.removeRootUrl(logUrl) + "?start=0", "application/json")
+                .getWebResponse().getContentAsString(), FlowNodeLogExt.class);
+        Assert.assertThat(logExt.getText(), containsString("Building"));
+        Assert.assertFalse(logExt.isHasMore());
+        Assert.assertNotNull(logExt.getNextStart());
+        long nextStart = logExt.getNextStart();
+        Assert.assertTrue(nextStart > 0);
+
+        logExt = jsonReadWrite.fromString(webClient.goTo(Util.removeRootUrl(logUrl) + "?start=" + nextStart, "application/json")
+                .getWebResponse().getContentAsString(), FlowNodeLogExt.class);
+        Assert.assertNull(logExt.getText());
+        Assert.assertEquals(0, logExt.getLength());
+        Assert.assertEquals(Long.valueOf(nextStart), logExt.getNextStart());
+
+        // The plain text
+        String rawUrl = Util.removeRootUrl(logUrl) + "/raw";
+        WebRequest rawRequest = new WebRequest(new URL(jenkinsRule.getURL(), rawUrl));
+        WebResponse raw = webClient.loadWebResponse(rawRequest);
+        Assert.assertEquals(200, raw.getStatusCode());
+        Assert.assertEquals("Building\n", raw.getContentAsString());
+        Assert.assertEquals("bytes", raw.getResponseHeaderValue("Accept-Ranges"));
+        String size = raw.getResponseHeaderValue("X-Text-Size");
+        Assert.assertEquals(nextStart, Long.parseLong(size));
+
+        // Byte ranges of the stored log
+        rawRequest.setAdditionalHeader("Range", "bytes=1-3");
+        raw = webClient.loadWebResponse(rawRequest);
+        Assert.assertEquals(206, raw.getStatusCode());
+        Assert.assertEquals("uil", raw.getContentAsString());
+        Assert.assertEquals("bytes 1-3/" + size, raw.getResponseHeaderValue("Content-Range"));
+
+        rawRequest.setAdditionalHeader("Range", "bytes=-2");
+        raw = webClient.loadWebResponse(rawRequest);
+        Assert.assertEquals(206, raw.getStatusCode());
+        Assert.assertEquals("g\n", raw.getContentAsString());
+
+        rawRequest.setAdditionalHeader("Range", "bytes=100-");
+        raw = webClient.loadWebResponse(rawRequest);
+        Assert.assertEquals(416, raw.getStatusCode());
+        Assert.assertEquals("bytes */" + size, raw.getResponseHeaderValue("Content-Range"));
+
+        // From a start offset in the stored log
+        raw = webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(), rawUrl + "?start=1")));
+        Assert.assertEquals("uilding\n", raw.getContentAsString());
+        raw = webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(), rawUrl + "?start=" + size)));
+        Assert.assertEquals(200, raw.getStatusCode());
+        Assert.assertEquals("", raw.getContentAsString());
+        Assert.assertEquals(size, raw.getResponseHeaderValue("X-Text-Size"));
+        Assert.assertEquals(400, webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(), rawUrl + "?start=x")))
+                .getStatusCode());
+    }
+
+    private void assert_stage_logs_ok(JenkinsRule.WebClient webClient, JSONReadWrite jsonReadWrite) throws IOException, SAXException {
+        String stageLogsUrl = "job/Noddy%20Job/1/execution/node/6/wfapi/stageLogs";
+        StageLogsExt stageLogs = jsonReadWrite.fromString(webClient.goTo(stageLogsUrl, "application/json")
+                .getWebResponse().getContentAsString(), StageLogsExt.class);
+
+        Assert.assertEquals("6", stageLogs.getNodeId());
+        Assert.assertEquals(StatusExt.SUCCESS, stageLogs.getNodeStatus());
+        Assert.assertEquals("/jenkins/" + stageLogsUrl, stageLogs.get_links().self.href);
+        FlowNodeLogExt nodeLog = Iterables.getOnlyElement(stageLogs.getNodeLogs());
+        Assert.assertEquals("7", nodeLog.getNodeId());
+        Assert.assertThat(nodeLog.getText(), containsString("Building"));
+        Long nextStart = nodeLog.getNextStart();
+        Assert.assertNotNull(nextStart);
+
+        // Nothing more from where that left off
+        stageLogs = jsonReadWrite.fromString(webClient.goTo(stageLogsUrl + "?starts=7:" + nextStart, "application/json")
+                .getWebResponse().getContentAsString(), StageLogsExt.class);
+        nodeLog = Iterables.getOnlyElement(stageLogs.getNodeLogs());
+        Assert.assertNull(nodeLog.getText());
+        Assert.assertEquals(nextStart, nodeLog.getNextStart());
+
+        // Not a stage, or bad offsets
+        Assert.assertEquals(404, webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(),
+                "job/Noddy%20Job/1/execution/node/7/wfapi/stageLogs"))).getStatusCode());
+        Assert.assertEquals(400, webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(),
+                stageLogsUrl + "?starts=7"))).getStatusCode());
     }
 
     @Test
@@ -208,6 +297,36 @@ public class FlowNodeAPITest {
         validateChildNodeDescribeAPIs(stageDesc, webClient);
     }
 
+    @Test
+    public void test_stage_describe_uncached() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Noddy Job");
+
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { " +
+                "   echo ('Building')}; " +
+                "stage ('Test') { " +
+                "   parallel a: { echo ('Testing a') }, b: { echo ('Testing b') } }; " +
+                "stage ('Deploy') { " +
+                "   echo ('Deploying')}; ", true));
+
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt fullRun = RunExt.createNew(build);
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidateAll();
+
+        // Each stage is digested on its own, and should match what the full run digest gives
+        for (StageNodeExt expected : fullRun.getStages()) {
+            StageNodeExt actual = (StageNodeExt) Describe.get(build.getExecution().getNode(expected.getId()));
+            Assert.assertEquals(expected.getName(), actual.getName());
+            Assert.assertEquals(expected.getStatus(), actual.getStatus());
+            Assert.assertEquals(expected.getStartTimeMillis(), actual.getStartTimeMillis());
+            Assert.assertEquals(expected.getDurationMillis(), actual.getDurationMillis());
+            Assert.assertEquals(expected.getAllChildNodeIds(), actual.getAllChildNodeIds());
+            Assert.assertEquals(expected.getStageFlowNodes().size(), actual.getStageFlowNodes().size());
+        }
+        Assert.assertNull("Describing a stage should not digest the whole run",
+                FlowNodeUtil.CacheExtension.all().get(0).getRunCache().getIfPresent(build.getExternalizableId()));
+    }
+
     /** Exercise the describe APIs for a stage node */
     private void validateChildNodeDescribeAPIs(StageNodeExt stage, JenkinsRule.WebClient client) throws IOException, SAXException {
         JSONReadWrite jrw = new JSONReadWrite();
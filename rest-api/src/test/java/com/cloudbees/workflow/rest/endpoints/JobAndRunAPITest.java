@@ -23,17 +23,25 @@
  */
 package com.cloudbees.workflow.rest.endpoints;
 
+import com.cloudbees.workflow.Util;
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
 import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
 import com.cloudbees.workflow.rest.external.BuildArtifactExt;
 import com.cloudbees.workflow.rest.external.ChangeSetExt;
 import com.cloudbees.workflow.rest.external.ErrorExt;
+import com.cloudbees.workflow.rest.external.JobChangesExt;
 import com.cloudbees.workflow.rest.external.JobExt;
+import com.cloudbees.workflow.rest.external.LogSearchExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.RunsDeltaExt;
+import com.cloudbees.workflow.rest.external.RunsPageExt;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.external.StageStatisticsExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
 import com.cloudbees.workflow.util.JSONReadWrite;
 import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
+import org.htmlunit.WebResponse;
 import hudson.model.Action;
 import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
@@ -50,8 +58,11 @@ import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.List;
 
 import static java.lang.System.clearProperty;
@@ -248,6 +259,235 @@ public class JobAndRunAPITest {
         Assert.assertTrue(first.getDurationMillis() > 0);
     }
 
+    @Test
+    public void testRunsPagination() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PagedJob");
+        job.setDefinition(new CpsFlowDefinition("echo 'hi'", true));
+        for (int i = 0; i < 5; i++) {
+            jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        }
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        JSONReadWrite jsonReadWrite = new JSONReadWrite();
+
+        RunsPageExt page = jsonReadWrite.fromString(webClient.goTo(job.getUrl() + "wfapi/runs?limit=2", "application/json")
+                .getWebResponse().getContentAsString(), RunsPageExt.class);
+        Assert.assertEquals(2, page.getRuns().size());
+        Assert.assertEquals("#5", page.getRuns().get(0).getName());
+        Assert.assertEquals("#4", page.getRuns().get(1).getName());
+        Assert.assertNull(page.get_links().getPrev());
+        Assert.assertEquals("/jenkins/job/PagedJob/wfapi/runs?limit=2&before=4", page.get_links().getNext().href);
+
+        page = jsonReadWrite.fromString(webClient.goTo(Util.removeRootUrl(page.get_links().getNext().href), "application/json")
+                .getWebResponse().getContentAsString(), RunsPageExt.class);
+        Assert.assertEquals("#3", page.getRuns().get(0).getName());
+        Assert.assertEquals("#2", page.getRuns().get(1).getName());
+
+        page = jsonReadWrite.fromString(webClient.goTo(Util.removeRootUrl(page.get_links().getNext().href), "application/json")
+                .getWebResponse().getContentAsString(), RunsPageExt.class);
+        Assert.assertEquals(1, page.getRuns().size());
+        Assert.assertEquals("#1", page.getRuns().get(0).getName());
+        Assert.assertNull(page.get_links().getNext());
+        Assert.assertEquals("/jenkins/job/PagedJob/wfapi/runs?limit=2&after=1", page.get_links().getPrev().href);
+
+        page = jsonReadWrite.fromString(webClient.goTo(Util.removeRootUrl(page.get_links().getPrev().href), "application/json")
+                .getWebResponse().getContentAsString(), RunsPageExt.class);
+        Assert.assertEquals("#3", page.getRuns().get(0).getName());
+        Assert.assertEquals("#2", page.getRuns().get(1).getName());
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PolledJob");
+        job.setDefinition(new CpsFlowDefinition("stage('only') { echo 'hi' }", true));
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+
+        WebRequest request = new WebRequest(new URL(jenkinsRule.getURL(), job.getUrl() + "wfapi/runs?fullStages=true"));
+        WebResponse response = webClient.loadWebResponse(request);
+        Assert.assertEquals(200, response.getStatusCode());
+        String etag = response.getResponseHeaderValue("ETag");
+        Assert.assertNotNull("Completed runs should be tagged", etag);
+
+        request.setAdditionalHeader("If-None-Match", etag);
+        response = webClient.loadWebResponse(request);
+        Assert.assertEquals(304, response.getStatusCode());
+        Assert.assertEquals(etag, response.getResponseHeaderValue("ETag"));
+
+        // Other query parameters are a different response
+        WebRequest other = new WebRequest(new URL(jenkinsRule.getURL(), job.getUrl() + "wfapi/runs"));
+        other.setAdditionalHeader("If-None-Match", etag);
+        Assert.assertEquals(200, webClient.loadWebResponse(other).getStatusCode());
+
+        // A new build changes the response
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        response = webClient.loadWebResponse(request);
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertNotEquals(etag, response.getResponseHeaderValue("ETag"));
+    }
+
+    @Test
+    public void testJobChanges() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ChangingJob");
+        job.setDefinition(new CpsFlowDefinition("echo 'hi'", true));
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+
+        JobChangesExt changes = Util.getJSON(job.getUrl() + "wfapi/changes", JobChangesExt.class, jenkinsRule);
+        Assert.assertEquals("/jenkins/job/ChangingJob/wfapi/changes", changes.get_links().self.href);
+        String initial = changes.getVersion();
+        Assert.assertNotNull(initial);
+        Assert.assertEquals(initial, Util.getJSON(job.getUrl() + "wfapi/changes", JobChangesExt.class, jenkinsRule).getVersion());
+
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        String afterBuild = Util.getJSON(job.getUrl() + "wfapi/changes", JobChangesExt.class, jenkinsRule).getVersion();
+        Assert.assertNotEquals(initial, afterBuild);
+
+        run.delete();
+        Assert.assertNotEquals(afterBuild, Util.getJSON(job.getUrl() + "wfapi/changes", JobChangesExt.class, jenkinsRule).getVersion());
+    }
+
+    @Test
+    public void testRunsDelta() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "DeltaJob");
+        job.setDefinition(new CpsFlowDefinition("echo 'hi'", true));
+        WorkflowRun first = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        // Without a version, everything
+        RunsDeltaExt delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=", RunsDeltaExt.class, jenkinsRule);
+        Assert.assertTrue(delta.isReset());
+        Assert.assertEquals(2, delta.getRuns().size());
+        Assert.assertEquals("#2", delta.getRuns().get(0).getName());
+
+        // Nothing changed since the current version
+        jenkinsRule.waitUntilNoActivity();
+        String version = Util.getJSON(job.getUrl() + "wfapi/changes", JobChangesExt.class, jenkinsRule).getVersion();
+        delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=" + version, RunsDeltaExt.class, jenkinsRule);
+        Assert.assertFalse(delta.isReset());
+        Assert.assertEquals(version, delta.getVersion());
+        Assert.assertTrue(delta.getRuns().isEmpty());
+        Assert.assertTrue(delta.getDeleted().isEmpty());
+
+        // Only the new run
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=" + version, RunsDeltaExt.class, jenkinsRule);
+        Assert.assertFalse(delta.isReset());
+        Assert.assertEquals(1, delta.getRuns().size());
+        Assert.assertEquals("#3", delta.getRuns().get(0).getName());
+
+        // Deleted runs are reported by ID
+        version = delta.getVersion();
+        first.delete();
+        delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=" + version, RunsDeltaExt.class, jenkinsRule);
+        Assert.assertFalse(delta.isReset());
+        Assert.assertEquals(Collections.singletonList("1"), delta.getDeleted());
+
+        // Unknown versions start again
+        delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=bogus.1", RunsDeltaExt.class, jenkinsRule);
+        Assert.assertTrue(delta.isReset());
+        Assert.assertEquals(2, delta.getRuns().size());
+
+        // Encoded in the self link
+        delta = Util.getJSON(job.getUrl() + "wfapi/runs?sinceVersion=" + URLEncoder.encode("a&b=c d", "UTF-8"), RunsDeltaExt.class, jenkinsRule);
+        Assert.assertEquals("/jenkins/job/DeltaJob/wfapi/runs?sinceVersion=a%26b%3Dc+d", delta.get_links().self.href);
+    }
+
+    @Test
+    public void testLogSearch() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "SearchedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage('build') { echo 'compiling'; echo 'error: disk full' }\n" +
+                "stage('test') { echo 'no error here' }\n" +
+                "echo 'error outside any stage'", true));
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt runExt = RunExt.create(run);
+        StageNodeExt build = runExt.getStages().get(0);
+        StageNodeExt test = runExt.getStages().get(1);
+
+        LogSearchExt search = Util.getJSON(run.getUrl() + "wfapi/logSearch?q=error", LogSearchExt.class, jenkinsRule);
+        Assert.assertEquals("/jenkins/job/SearchedJob/1/wfapi/logSearch?q=error", search.get_links().self.href);
+        Assert.assertEquals("error", search.getQuery());
+        Assert.assertTrue(search.isComplete());
+        Assert.assertEquals(3, search.getMatches().size());
+        LogSearchExt.Match match = search.getMatches().get(0);
+        Assert.assertEquals(build.getId(), match.getStageId());
+        Assert.assertEquals(build.getStageFlowNodes().get(1).getId(), match.getNodeId());
+        Assert.assertEquals(1, match.getLine());
+        Assert.assertEquals("error: disk full", match.getText());
+        Assert.assertEquals(test.getId(), search.getMatches().get(1).getStageId());
+        match = search.getMatches().get(2);
+        Assert.assertNull(match.getStageId());
+        Assert.assertEquals("error outside any stage", match.getText());
+
+        search = Util.getJSON(run.getUrl() + "wfapi/logSearch?q=nowhere", LogSearchExt.class, jenkinsRule);
+        Assert.assertTrue(search.isComplete());
+        Assert.assertTrue(search.getMatches().isEmpty());
+
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        WebResponse empty = webClient.loadWebResponse(new WebRequest(new URL(jenkinsRule.getURL(), run.getUrl() + "wfapi/logSearch?q=")));
+        Assert.assertEquals(400, empty.getStatusCode());
+    }
+
+    @Test
+    public void testStageStatistics() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "MeasuredJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage('build') { echo 'compiling' }\n" +
+                "stage('test') { if (currentBuild.number == 2) { error('broken') } }", true));
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        jenkinsRule.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0).get());
+
+        // Recorded once the builds are finalized, and the (empty) seed is done
+        StageStatisticsExt statistics = null;
+        for (int i = 0; i < 100; i++) {
+            statistics = Util.getJSON(job.getUrl() + "wfapi/stageStatistics", StageStatisticsExt.class, jenkinsRule);
+            if (statistics.getBuilds() == 2 && statistics.isComplete()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(2, statistics.getBuilds());
+        Assert.assertTrue(statistics.isComplete());
+        Assert.assertEquals("/jenkins/job/MeasuredJob/wfapi/stageStatistics", statistics.get_links().self.href);
+        Assert.assertEquals(2, statistics.getStages().size());
+        StageStatisticsExt.StageStats build = statistics.getStages().get(0);
+        Assert.assertEquals("build", build.getName());
+        Assert.assertEquals(2, build.getCount());
+        Assert.assertEquals(0.0, build.getFailureRate(), 0.0);
+        Assert.assertTrue(build.getP50DurationMillis() <= build.getP95DurationMillis());
+        StageStatisticsExt.StageStats test = statistics.getStages().get(1);
+        Assert.assertEquals("test", test.getName());
+        Assert.assertEquals(0.5, test.getFailureRate(), 0.0);
+        Assert.assertTrue(new File(job.getRootDir(), "wfapi-stage-stats.json").isFile());
+
+        // Only the newest build
+        statistics = Util.getJSON(job.getUrl() + "wfapi/stageStatistics?builds=1", StageStatisticsExt.class, jenkinsRule);
+        Assert.assertEquals(1, statistics.getBuilds());
+        Assert.assertEquals(1.0, statistics.getStages().get(1).getFailureRate(), 0.0);
+    }
+
+    @Test
+    public void testStageChildNodesCapped() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ManySteps");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage('many') {\n" +
+                "for (int i = 0; i < 150; i++) { echo \"step $i\" }\n" +
+                "}\n", true));
+
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt run = RunExt.createNew(build);
+        Assert.assertEquals(1, run.getStages().size());
+        StageNodeExt stage = run.getStages().get(0);
+
+        // Only the earliest nodes are returned, in order, but all of them are tracked
+        List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+        Assert.assertEquals(100, children.size());
+        Assert.assertEquals(150, stage.getAllChildNodeIds().size());
+        for (int i = 0; i < children.size(); i++) {
+            Assert.assertEquals(stage.getAllChildNodeIds().get(i), children.get(i).getId());
+            Assert.assertEquals(StatusExt.SUCCESS, children.get(i).getStatus());
+        }
+    }
+
     @Test
     public void testErrorHandling() throws Exception {
         WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Failing Job");
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.endpoints;
+
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests of the server side of /wfapi/stream
+ */
+public class JobStreamTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    private final long heartbeatMillis = JobStream.HEARTBEAT_MILLIS;
+    private final long timeoutMillis = JobStream.TIMEOUT_MILLIS;
+
+    @After
+    public void after() {
+        JobStream.HEARTBEAT_MILLIS = heartbeatMillis;
+        JobStream.TIMEOUT_MILLIS = timeoutMillis;
+    }
+
+    @Test
+    public void buildsArePushed() throws Exception {
+        WorkflowJob job = createJob();
+        HttpURLConnection connection = subscribe(job);
+        try (BufferedReader stream = read(connection)) {
+            Assert.assertEquals("retry: 5000", stream.readLine());
+
+            QueueTaskFuture<WorkflowRun> build = job.scheduleBuild2(0);
+            jenkinsRule.assertBuildStatusSuccess(build);
+
+            // All the runs first, then the changes as they go out while the build runs, and once more when it completes
+            String data = readUntil(stream, "data: ");
+            Assert.assertTrue(data, data.startsWith("data: {"));
+            Assert.assertTrue(data, data.contains("\"reset\":true"));
+            while (!data.contains("\"status\":\"SUCCESS\"")) {
+                data = readUntil(stream, "data: ");
+                Assert.assertTrue(data, data.contains("\"reset\":false"));
+            }
+            Assert.assertTrue(data, data.contains("\"id\":\"1\""));
+            Assert.assertTrue(data, data.contains(jenkinsRule.contextPath + "/job/Streamed/1/wfapi/describe"));
+
+            // Deleted runs go out too
+            build.get().delete();
+            do {
+                data = readUntil(stream, "data: ");
+            } while (!data.contains("\"deleted\":[\"1\"]"));
+            Assert.assertTrue(data, data.contains("\"runs\":[]"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void heartbeatsUntilTimeout() throws Exception {
+        JobStream.HEARTBEAT_MILLIS = 100;
+        JobStream.TIMEOUT_MILLIS = 2000;
+        WorkflowJob job = createJob();
+        HttpURLConnection connection = subscribe(job);
+        try (BufferedReader stream = read(connection)) {
+            readUntil(stream, ":");
+            Assert.assertEquals(1, JobStream.countSubscribers(job));
+            // The server ends the stream at the timeout
+            while (stream.readLine() != null) {
+                // Heartbeats and the initial runs
+            }
+        } finally {
+            connection.disconnect();
+        }
+        waitForSubscribers(job, 0);
+    }
+
+    @Test
+    public void disconnectedClientsAreDropped() throws Exception {
+        JobStream.HEARTBEAT_MILLIS = 100;
+        WorkflowJob job = createJob();
+        HttpURLConnection first = subscribe(job);
+        HttpURLConnection second = subscribe(job);
+        try (BufferedReader firstStream = read(first); BufferedReader secondStream = read(second)) {
+            Assert.assertEquals("retry: 5000", firstStream.readLine());
+            Assert.assertEquals("retry: 5000", secondStream.readLine());
+            waitForSubscribers(job, 2);
+
+            // Noticed by the next heartbeats
+            first.disconnect();
+            waitForSubscribers(job, 1);
+            readUntil(secondStream, ":");
+        } finally {
+            second.disconnect();
+        }
+        waitForSubscribers(job, 0);
+    }
+
+    private WorkflowJob createJob() throws IOException {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Streamed");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { " +
+                "  echo ('Building'); " +
+                "}", true));
+        return job;
+    }
+
+    private HttpURLConnection subscribe(WorkflowJob job) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(jenkinsRule.getURL(), job.getUrl() + "wfapi/stream").openConnection();
+        connection.setReadTimeout(30000);
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals("text/event-stream;charset=utf-8", connection.getContentType().replace(" ", "").toLowerCase());
+        return connection;
+    }
+
+    private static BufferedReader read(HttpURLConnection connection) throws IOException {
+        return new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Skip to the next line starting with a prefix */
+    private static String readUntil(BufferedReader stream, String prefix) throws IOException {
+        String line;
+        do {
+            line = stream.readLine();
+            Assert.assertNotNull("Stream ended before " + prefix, line);
+        } while (!line.startsWith(prefix));
+        return line;
+    }
+
+    private static void waitForSubscribers(WorkflowJob job, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && JobStream.countSubscribers(job) != count; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(count, JobStream.countSubscribers(job));
+    }
+}
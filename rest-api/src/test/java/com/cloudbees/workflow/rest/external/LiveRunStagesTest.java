@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.Util;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.List;
+
+/**
+ * Tests that the incrementally maintained stages of a running build match a full scan
+ */
+public class LiveRunStagesTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void matchesFullScan() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "LiveJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') { echo 'building'; echo 'still building' }\n" +
+                "stage ('Test') { parallel a: { echo 'a' }, b: { echo 'b' } }\n" +
+                "stage ('Deploy') { echo 'deploying'; input(message: 'Ship it?') }",
+                true));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun run = job.getFirstBuild();
+        Util.waitForBuildPendingInput(run);
+
+        // Twice, so the second call uses the stages already completed
+        RunExt.create(run);
+        RunExt live = RunExt.create(run);
+        List<StageNodeExt> scanned = LiveRunStages.scanStages(run, run.getExecution());
+        scanned.sort((s1, s2) -> Integer.compare(Integer.parseInt(s1.getId()), Integer.parseInt(s2.getId())));
+
+        Assert.assertEquals(3, live.getStages().size());
+        Assert.assertEquals(scanned.size(), live.getStages().size());
+        for (int i = 0; i < scanned.size(); i++) {
+            StageNodeExt expected = scanned.get(i);
+            StageNodeExt actual = live.getStages().get(i);
+            Assert.assertEquals(expected.getId(), actual.getId());
+            Assert.assertEquals(expected.getName(), actual.getName());
+            Assert.assertEquals(expected.getStatus(), actual.getStatus());
+            Assert.assertEquals(expected.getStartTimeMillis(), actual.getStartTimeMillis());
+            Assert.assertEquals(expected.getAllChildNodeIds(), actual.getAllChildNodeIds());
+            Assert.assertEquals(expected.getStageFlowNodes().size(), actual.getStageFlowNodes().size());
+        }
+        Assert.assertEquals(StatusExt.SUCCESS, live.getStages().get(0).getStatus());
+
+        run.doStop();
+        jenkinsRule.waitForCompletion(run);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.util;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.external.StatusExt;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests the {@code fields} response projection
+ */
+public class FieldProjectionTest {
+
+    @Test
+    public void test_projection() throws Exception {
+        RunExt run = new RunExt();
+        run.set_links(new RunExt.RunLinks());
+        run.get_links().initSelf("/jenkins/job/p/1/wfapi/describe");
+        run.setId("1");
+        run.setName("#1");
+        run.setStatus(StatusExt.SUCCESS);
+        run.setDurationMillis(1000);
+        StageNodeExt build = new StageNodeExt();
+        build.setId("6");
+        build.setName("Build");
+        build.setStatus(StatusExt.SUCCESS);
+        build.setDurationMillis(400);
+        StageNodeExt test = new StageNodeExt();
+        test.setId("11");
+        test.setName("Test");
+        test.setStatus(StatusExt.FAILED);
+        test.setDurationMillis(600);
+        run.setStages(Arrays.asList(build, test));
+
+        FieldProjection fields = FieldProjection.parse("id, status,stages.name,stages.durationMillis");
+        String json = fields.writer(JSONReadWrite.jsonMapper).writeValueAsString(Collections.singletonList(run));
+        JsonNode runs = JSONReadWrite.jsonMapper.readTree(json);
+
+        Assert.assertEquals(1, runs.size());
+        JsonNode out = runs.get(0);
+        Assert.assertEquals(3, out.size());
+        Assert.assertEquals("1", out.get("id").asText());
+        Assert.assertEquals("SUCCESS", out.get("status").asText());
+        Assert.assertEquals(2, out.get("stages").size());
+        JsonNode stage = out.get("stages").get(1);
+        Assert.assertEquals(2, stage.size());
+        Assert.assertEquals("Test", stage.get("name").asText());
+        Assert.assertEquals(600, stage.get("durationMillis").asLong());
+
+        // A field includes everything below it
+        json = FieldProjection.parse("_links").writer(JSONReadWrite.jsonMapper).writeValueAsString(run);
+        out = JSONReadWrite.jsonMapper.readTree(json);
+        Assert.assertEquals(1, out.size());
+        Assert.assertEquals("/jenkins/job/p/1/wfapi/describe", out.get("_links").get("self").get("href").asText());
+
+        // The plain mapper is unaffected
+        out = JSONReadWrite.jsonMapper.readTree(JSONReadWrite.jsonMapper.writeValueAsString(run));
+        Assert.assertTrue(out.has("name"));
+        Assert.assertTrue(out.get("stages").get(0).has("status"));
+    }
+
+    @Test
+    public void test_no_fields() {
+        Assert.assertNull(FieldProjection.parse(null));
+        Assert.assertNull(FieldProjection.parse(" , "));
+    }
+}
@@ -27,7 +27,7 @@ var restApi = require('./rest-api');
 exports.listen = function (jobUrl, callback) {
     restApi.getJobRuns(jobUrl, function (jobRunsData) {
         callback(jobRunsData);
-        setupJobPoll(jobUrl, callback, jobRunsData)
+        setupJobListener(jobUrl, callback, jobRunsData)
     }, {fullStages: 'true'});
 }
 
@@ -36,7 +36,7 @@ exports.schedulePoll = function (callback) {
     setTimeout(callback, 5000);
 }
 
-function setupJobPoll(jobUrl, callback, jobRunsData) {
+function setupJobListener(jobUrl, callback, jobRunsData) {
     function findSinceRunParam() {
         // console.log('findSinceRunParam');
         // Find the name of the oldest build that has an in progress type status.
@@ -68,47 +68,119 @@ function setupJobPoll(jobUrl, callback, jobRunsData) {
         jobRunsData = [run].concat(jobRunsData);
     }
 
-    function pollJobRuns () {
-        restApi.getJobRuns(jobUrl, function (sinceJobRunsData) {
-        // console.log('job-progress......');
-            try {
-                var notifyListeners = false;
-
-                // reverse iterate the returned set and see if there's anything new
-                // or potentially changed...
-                for (var i = sinceJobRunsData.length - 1; i >= 0; i--) {
-                    var aSinceRun = sinceJobRunsData[i];
-                    var knownRunIndex = findRunIndex(aSinceRun.id);
-
-                    if (knownRunIndex === -1) {
-                        // We don't know this run... it's a new one.  Add it to the start.
-                        notifyListeners = true;
-                        addRun(aSinceRun);
-                    } else {
-                        // We know this run... has it changed?
-                        var knownRun = jobRunsData[knownRunIndex];
-                        if (aSinceRun.status !== knownRun.status) {
-                            // status has changed
-                            notifyListeners = true;
-                        } else if (aSinceRun.status === 'IN_PROGRESS' || aSinceRun.status === 'PAUSED_PENDING_INPUT') {
-                            // it's in an in progress state of some sort...
-                            notifyListeners = true;
-                        }
-                        jobRunsData[knownRunIndex] = aSinceRun;
-                    }
+    function isRunInProgress() {
+        for (var i = 0; i < jobRunsData.length; i++) {
+            var runStatus = jobRunsData[i].status;
+            if (runStatus === 'IN_PROGRESS' || runStatus === 'PAUSED_PENDING_INPUT') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The version of the job that jobRunsData is up to date with, if known
+    var lastVersion;
+
+    function pollJobChanges () {
+        if (isRunInProgress()) {
+            // Timings of running builds change even when the version does not...
+            pollJobRuns();
+            return;
+        }
+        // Nothing running, so only fetch the runs if the job's version has changed.
+        restApi.getJobChanges(jobUrl, function (jobChanges) {
+            if (lastVersion !== undefined && jobChanges.version === lastVersion) {
+                exports.schedulePoll(pollJobChanges);
+            } else {
+                pollJobRuns(jobChanges.version);
+            }
+        });
+    }
+
+    // Merge in runs that may have changed, returning true if any did
+    function mergeRuns(sinceJobRunsData) {
+        var notifyListeners = false;
+
+        // reverse iterate the returned set and see if there's anything new
+        // or potentially changed...
+        for (var i = sinceJobRunsData.length - 1; i >= 0; i--) {
+            var aSinceRun = sinceJobRunsData[i];
+            var knownRunIndex = findRunIndex(aSinceRun.id);
+
+            if (knownRunIndex === -1) {
+                // We don't know this run... it's a new one.  Add it to the start.
+                notifyListeners = true;
+                addRun(aSinceRun);
+            } else {
+                // We know this run... has it changed?
+                var knownRun = jobRunsData[knownRunIndex];
+                if (aSinceRun.status !== knownRun.status) {
+                    // status has changed
+                    notifyListeners = true;
+                } else if (aSinceRun.status === 'IN_PROGRESS' || aSinceRun.status === 'PAUSED_PENDING_INPUT') {
+                    // it's in an in progress state of some sort...
+                    notifyListeners = true;
                 }
+                jobRunsData[knownRunIndex] = aSinceRun;
+            }
+        }
 
-                // TODO: what about jobs that have been deleted?
+        return notifyListeners;
+    }
 
-                if (notifyListeners) {
-                    callback(jobRunsData);
+    function mergeJobRuns(sinceJobRunsData) {
+        // Deleted runs are only known from deltas, see mergeJobRunsDelta
+        if (mergeRuns(sinceJobRunsData)) {
+            callback(jobRunsData);
+        }
+    }
+
+    function mergeJobRunsDelta(delta) {
+        lastVersion = delta.version;
+        if (delta.reset) {
+            // The server no longer knows what changed since our version, so these are all the runs
+            jobRunsData = delta.runs;
+            callback(jobRunsData);
+            return;
+        }
+
+        var notifyListeners = false;
+        for (var i = 0; i < delta.deleted.length; i++) {
+            var deletedRunIndex = findRunIndex(delta.deleted[i]);
+            if (deletedRunIndex !== -1) {
+                jobRunsData.splice(deletedRunIndex, 1);
+                notifyListeners = true;
+            }
+        }
+        // Every run in a delta has changed (or is in progress)
+        mergeRuns(delta.runs);
+        if (notifyListeners || delta.runs.length > 0) {
+            callback(jobRunsData);
+        }
+    }
+
+    function pollJobRuns (jobVersion) {
+        restApi.getJobRuns(jobUrl, function (sinceJobRunsData) {
+        // console.log('job-progress......');
+            try {
+                if (Array.isArray(sinceJobRunsData)) {
+                    // A plain runs list, from a server without sinceVersion support
+                    mergeJobRuns(sinceJobRunsData);
+                    lastVersion = jobVersion;
+                } else {
+                    mergeJobRunsDelta(sinceJobRunsData);
                 }
             } finally {
-                exports.schedulePoll(pollJobRuns);
+                exports.schedulePoll(pollJobChanges);
             }
-        }, {since: findSinceRunParam(), fullStages: 'true'});
+        }, {since: findSinceRunParam(), sinceVersion: (lastVersion !== undefined ? lastVersion : ''), fullStages: 'true'});
     }
 
-    // Kick it ...
-    exports.schedulePoll(pollJobRuns);
+    // Kick it ... have the server push changes if we can, otherwise poll for them.
+    var stream = restApi.openJobStream(jobUrl, mergeJobRunsDelta, function () {
+        exports.schedulePoll(pollJobChanges);
+    });
+    if (!stream) {
+        exports.schedulePoll(pollJobChanges);
+    }
 }
@@ -23,6 +23,7 @@
  */
 
 var ajax = require('../util/ajax');
+var url = require('../util/url');
 
 /**
  * Workflow REST API
@@ -54,14 +55,48 @@ function cacheRunStages(run) {
 
 exports.getJobRuns = function(jobUrl, success, params) {
     ajax.execAsyncGET([jobUrl, 'wfapi', 'runs'], function(obj) {
-        // Cache the stages for the run
-        for (var i=0; i < obj.length; i++) {
-            cacheRunStages(obj[i]);
+        // Cache the stages for the run. Asking for a sinceVersion returns the runs in a delta object.
+        var runs = (Array.isArray(obj) ? obj : obj.runs);
+        for (var i=0; i < runs.length; i++) {
+            cacheRunStages(runs[i]);
         }
         success(obj);
     }, params);
 }
 
+/**
+ * Stream the job's runs from the server, instead of polling for them.
+ * @param jobUrl The job.
+ * @param success Called with the runs each time they change (runs back to the oldest one in progress).
+ * @param failure Called if the stream could not be opened, or was closed by the server.
+ * @return The stream, or undefined if the browser does not support streams.
+ */
+exports.openJobStream = function(jobUrl, success, failure) {
+    if (typeof EventSource === 'undefined') {
+        return undefined;
+    }
+    var source = new EventSource(url.concatPathTokens([jobUrl, 'wfapi', 'stream']));
+    source.addEventListener('runs', function(event) {
+        var delta = JSON.parse(event.data);
+        // Cache the stages for the run
+        for (var i=0; i < delta.runs.length; i++) {
+            cacheRunStages(delta.runs[i]);
+        }
+        success(delta);
+    });
+    source.onerror = function() {
+        // The browser reconnects by itself after the server ends a stream, but not if it refused one
+        if (source.readyState === EventSource.CLOSED) {
+            failure();
+        }
+    };
+    return source;
+}
+
+exports.getJobChanges = function(jobUrl, success) {
+    ajax.execAsyncGET([jobUrl, 'wfapi', 'changes'], success);
+}
+
 exports.getDescription = function(of, success) {
     var url;
     if (typeof of === 'string') {
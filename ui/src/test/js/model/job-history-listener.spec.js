@@ -25,12 +25,14 @@ describe("model/job-history-listener", function () {
 
         //var _01_run_changeset_pre_model = helper.requireTestRes('model/run_changesets/01_run_changeset_pre_model');
         var jobsToReturnFromRestAPI = [];
+        var jobVersion = 0;
         var pollJobRunsFunc;
         var lastParams;
         var listenCallbackCallCount = 0;
 
         function addRun(name, id, status) {
             jobsToReturnFromRestAPI = [{name: name, id: id, status: status}].concat(jobsToReturnFromRestAPI);
+            jobVersion++;
         }
 
         mockApi.getJobRuns.mockImplementation((jobUrl, callback, params) => {
@@ -39,6 +41,9 @@ describe("model/job-history-listener", function () {
             callback(backToObj);
             lastParams = params;
         })
+        mockApi.getJobChanges.mockImplementation((jobUrl, callback) => {
+            callback({version: 'v.' + jobVersion});
+        })
 
 
         listener.schedulePoll = function (pollJobRuns) {
@@ -90,6 +95,7 @@ describe("model/job-history-listener", function () {
         // Now lets change the status of that build and check how pollJobRunsFunc runs
         // the next time. listenCallbackCallCount should just get inc'd once.
         jobsToReturnFromRestAPI[0].status = 'SUCCESS';
+        jobVersion++;
         pollJobRunsFunc();
         expect(listenCallbackCallCount).toEqual(6);
         pollJobRunsFunc();
@@ -97,4 +103,154 @@ describe("model/job-history-listener", function () {
         expect(listenCallbackCallCount).toEqual(6);
     });
 
+    it("- test_02_idle_job_polls_version", function () {
+        var jobsToReturnFromRestAPI = [{name: '#1', id: 1, status: 'SUCCESS'}];
+        var jobVersion = 0;
+        var pollJobRunsFunc;
+        var getJobRunsCallCount = 0;
+        var listenCallbackCallCount = 0;
+
+        mockApi.getJobRuns.mockImplementation((jobUrl, callback, params) => {
+            getJobRunsCallCount++;
+            callback(JSON.parse(JSON.stringify(jobsToReturnFromRestAPI)));
+        })
+        mockApi.getJobChanges.mockImplementation((jobUrl, callback) => {
+            callback({version: 'v.' + jobVersion});
+        })
+        listener.schedulePoll = function (pollJobRuns) {
+            pollJobRunsFunc = pollJobRuns;
+        };
+
+        listener.listen('/job/AAA', function (jobModel) {
+            listenCallbackCallCount++;
+        });
+        expect(getJobRunsCallCount).toEqual(1);
+
+        // The first poll learns the version, after that the runs are not fetched while it stays the same
+        pollJobRunsFunc();
+        expect(getJobRunsCallCount).toEqual(2);
+        pollJobRunsFunc();
+        pollJobRunsFunc();
+        expect(getJobRunsCallCount).toEqual(2);
+        expect(mockApi.getJobChanges.mock.calls.length).toEqual(3);
+
+        // A new version means fetching the runs again
+        jobsToReturnFromRestAPI = [{name: '#2', id: 2, status: 'IN_PROGRESS'}].concat(jobsToReturnFromRestAPI);
+        jobVersion++;
+        pollJobRunsFunc();
+        expect(getJobRunsCallCount).toEqual(3);
+        expect(listenCallbackCallCount).toEqual(2);
+
+        // While a run is in progress the runs are fetched on every poll, without asking for the version
+        pollJobRunsFunc();
+        pollJobRunsFunc();
+        expect(getJobRunsCallCount).toEqual(5);
+        expect(mockApi.getJobChanges.mock.calls.length).toEqual(4);
+    });
+
+    it("- test_03_streamed_runs", function () {
+        var pushRuns;
+        var streamFailed;
+        var pollJobRunsFunc;
+        var listenCallbackCallCount = 0;
+        var lastJobModel;
+        var lastParams;
+
+        mockApi.getJobRuns.mockImplementation((jobUrl, callback, params) => {
+            lastParams = params;
+            callback([{name: '#1', id: '1', status: 'SUCCESS'}]);
+        })
+        mockApi.getJobChanges.mockImplementation((jobUrl, callback) => {
+            callback({version: 'v.4'});
+        })
+        mockApi.openJobStream.mockImplementation((jobUrl, success, failure) => {
+            pushRuns = success;
+            streamFailed = failure;
+            return {};
+        })
+        listener.schedulePoll = function (pollJobRuns) {
+            pollJobRunsFunc = pollJobRuns;
+        };
+
+        listener.listen('/job/AAA', function (jobModel) {
+            lastJobModel = jobModel;
+            listenCallbackCallCount++;
+        });
+        expect(listenCallbackCallCount).toEqual(1);
+        // Streaming, so no polling
+        expect(pollJobRunsFunc === undefined).toEqual(true);
+
+        // Pushed runs are merged in like polled deltas
+        pushRuns({version: 'v.1', reset: true, deleted: [],
+            runs: [{name: '#2', id: '2', status: 'IN_PROGRESS'}, {name: '#1', id: '1', status: 'SUCCESS'}]});
+        expect(listenCallbackCallCount).toEqual(2);
+        expect(lastJobModel.length).toEqual(2);
+        pushRuns({version: 'v.2', reset: false, deleted: [], runs: [{name: '#2', id: '2', status: 'SUCCESS'}]});
+        expect(listenCallbackCallCount).toEqual(3);
+        expect(lastJobModel[0].status).toEqual('SUCCESS');
+
+        // Including deleted runs
+        pushRuns({version: 'v.3', reset: false, deleted: ['1'], runs: []});
+        expect(listenCallbackCallCount).toEqual(4);
+        expect(lastJobModel.map(function (run) { return run.id; })).toEqual(['2']);
+
+        // Falls back to polling if the stream fails, from the version last pushed
+        streamFailed();
+        expect(pollJobRunsFunc !== undefined).toEqual(true);
+        pollJobRunsFunc();
+        expect(lastParams.sinceVersion).toEqual('v.3');
+    });
+
+    it("- test_04_delta_runs", function () {
+        var pollJobRunsFunc;
+        var lastParams;
+        var lastJobModel;
+        var listenCallbackCallCount = 0;
+        var deltaToReturn;
+
+        mockApi.getJobRuns.mockImplementation((jobUrl, callback, params) => {
+            lastParams = params;
+            if (params === undefined || params.sinceVersion === undefined) {
+                // The initial load
+                callback([{name: '#2', id: '2', status: 'SUCCESS'}, {name: '#1', id: '1', status: 'SUCCESS'}]);
+            } else {
+                callback(JSON.parse(JSON.stringify(deltaToReturn)));
+            }
+        })
+        mockApi.getJobChanges.mockImplementation((jobUrl, callback) => {
+            callback({version: 'v.1'});
+        })
+        listener.schedulePoll = function (pollJobRuns) {
+            pollJobRunsFunc = pollJobRuns;
+        };
+
+        listener.listen('/job/AAA', function (jobModel) {
+            lastJobModel = jobModel;
+            listenCallbackCallCount++;
+        });
+        expect(listenCallbackCallCount).toEqual(1);
+
+        // Not knowing a version, the first poll asks for everything
+        deltaToReturn = {version: 'v.1', reset: true, deleted: [],
+            runs: [{name: '#2', id: '2', status: 'SUCCESS'}, {name: '#1', id: '1', status: 'SUCCESS'}]};
+        pollJobRunsFunc();
+        expect(lastParams.sinceVersion).toEqual('');
+        expect(listenCallbackCallCount).toEqual(2);
+
+        // After that only the changes, with deleted runs removed
+        mockApi.getJobChanges.mockImplementation((jobUrl, callback) => {
+            callback({version: 'v.2'});
+        })
+        deltaToReturn = {version: 'v.2', reset: false, deleted: ['1'],
+            runs: [{name: '#3', id: '3', status: 'SUCCESS'}]};
+        pollJobRunsFunc();
+        expect(lastParams.sinceVersion).toEqual('v.1');
+        expect(listenCallbackCallCount).toEqual(3);
+        expect(lastJobModel.map(function (run) { return run.id; })).toEqual(['3', '2']);
+
+        // And nothing while the version stays the same
+        pollJobRunsFunc();
+        expect(listenCallbackCallCount).toEqual(3);
+    });
+
 });